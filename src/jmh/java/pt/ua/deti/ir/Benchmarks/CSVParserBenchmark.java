@@ -0,0 +1,88 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.ua.deti.ir.Reader.CSVParser;
+import pt.ua.deti.ir.Reader.MappedCSVReader;
+import pt.ua.deti.ir.Structures.Document;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static pt.ua.deti.ir.Constants.CORPUS_FILE_EXTENSION;
+
+/**
+ * Parsing the CSV files of the sample corpus: scanning the records alone, and reading them into the documents
+ * handed to the pipeline, on one or more threads over ranges of the files. The sample files are small, so they are
+ * split in ranges of {@link #SPLIT_SIZE} bytes for the threads to share. Divide the corpus size by the time per
+ * operation for the throughput in MB/s.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVParserBenchmark {
+
+    private static final long SPLIT_SIZE = 1 << 18;
+
+    private List<String> files;
+
+    @Setup
+    public void setup() {
+        File[] csv = new File(Fixtures.CORPUS).listFiles((dir, name) -> name.endsWith(CORPUS_FILE_EXTENSION));
+        if (csv == null || csv.length == 0) {
+            throw new IllegalStateException("No corpus found in " + new File(Fixtures.CORPUS).getAbsolutePath());
+        }
+        files = Arrays.stream(csv).map(File::getPath).sorted().collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void scan(Blackhole bh) throws IOException {
+        for (String file : files) {
+            try (MappedCSVReader reader = new MappedCSVReader(new File(file), "Id", "CreationDate", "Score", "Body")) {
+                while (reader.next()) {
+                    bh.consume(reader.getPosition());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public LinkedBlockingQueue<List<Document>> parse(Parsers parsers) {
+        LinkedBlockingQueue<List<Document>> batches = new LinkedBlockingQueue<>();
+        new CSVParser(new ConcurrentLinkedQueue<>(files), batches, 256, new ArrayList<>(), parsers.threads, SPLIT_SIZE).run();
+        return batches;
+    }
+
+    /**
+     * Parsing threads, a state of its own so the scan runs once
+     */
+    @State(Scope.Benchmark)
+    public static class Parsers {
+
+        @Param({"1", "2", "4"})
+        public int threads;
+    }
+}
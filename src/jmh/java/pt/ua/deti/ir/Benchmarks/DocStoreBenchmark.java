@@ -0,0 +1,86 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.ua.deti.ir.Reader.CorpusReader;
+import pt.ua.deti.ir.Structures.Document;
+import pt.ua.deti.ir.Utils.Disk.DocStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static pt.ua.deti.ir.Constants.DOC_PATHS_FILE;
+import static pt.ua.deti.ir.Constants.DOC_STORE_FILE;
+
+/**
+ * Document store of the sample corpus: parsing the corpus into a new store, and resolving the path and original
+ * Id of a page of 10 results
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocStoreBenchmark {
+
+    private List<String> sources;
+    private List<Document> records;
+    private String dirname;
+    private DocStore store;
+    private int[] results;
+
+    @Setup
+    public void setup() throws IOException {
+        sources = new ArrayList<>();
+        records = Fixtures.records(sources);
+        dirname = Fixtures.tempDir();
+        save();
+        store = new DocStore(new File(dirname, DOC_STORE_FILE), new File(dirname, DOC_PATHS_FILE));
+
+        Random random = new Random(42);
+        results = new int[10];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = random.nextInt(store.getDocumentCount());
+        }
+    }
+
+    @TearDown
+    public void clean() {
+        Fixtures.delete(dirname);
+    }
+
+    @Benchmark
+    public void save() {
+        CorpusReader reader = new CorpusReader(dirname);
+        reader.getSources().addAll(sources);
+        reader.parse(records);
+        reader.detach();
+        reader.save();
+    }
+
+    @Benchmark
+    public void resolve(Blackhole bh) {
+        for (int docID : results) {
+            bh.consume(store.getPath(docID));
+            bh.consume(store.getId(docID));
+        }
+    }
+}
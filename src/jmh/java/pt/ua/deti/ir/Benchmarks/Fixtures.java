@@ -0,0 +1,227 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import pt.ua.deti.ir.Indexer.Indexer;
+import pt.ua.deti.ir.Reader.CSVParser;
+import pt.ua.deti.ir.Reader.CorpusReader;
+import pt.ua.deti.ir.Structures.CorpusStatistics;
+import pt.ua.deti.ir.Structures.Document;
+import pt.ua.deti.ir.Tokenizer.Filter;
+import pt.ua.deti.ir.Tokenizer.StopWordFilter;
+import pt.ua.deti.ir.Tokenizer.Tokenizer;
+import pt.ua.deti.ir.Utils.Disk.DiskUtils;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.MappedPostings;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+import pt.ua.deti.ir.Utils.Disk.TermDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+import static pt.ua.deti.ir.Constants.CORPUS_FILE_EXTENSION;
+import static pt.ua.deti.ir.Constants.DICTIONARY_FILE;
+import static pt.ua.deti.ir.Constants.NORMS_FILE;
+import static pt.ua.deti.ir.Constants.POSTINGS_FILE;
+
+/**
+ * Benchmark fixtures derived from the sample corpus.
+ * The corpus and stop words paths default to the ones of the repository root and can be changed with the
+ * "stacksample" and "stopwords" system properties.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class Fixtures {
+
+    public static final String CORPUS = System.getProperty("stacksample", "./stacksample");
+    public static final String STOPWORDS = System.getProperty("stopwords", "./stop_processed.txt");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Documents of the corpus read by the CSVParser, without docIDs
+     * @param sources where the paths of the corpus files are added
+     * @return
+     */
+    public static List<Document> records(List<String> sources) {
+        File[] files = new File(CORPUS).listFiles((dir, name) -> name.endsWith(CORPUS_FILE_EXTENSION));
+        if (files == null || files.length == 0) {
+            throw new IllegalStateException("No corpus found in " + new File(CORPUS).getAbsolutePath());
+        }
+        Arrays.sort(files);
+
+        LinkedBlockingQueue<List<Document>> batches = new LinkedBlockingQueue<>();
+        new CSVParser(new ConcurrentLinkedQueue<>(Arrays.stream(files).map(File::getPath).collect(Collectors.toList())),
+                batches, 256, sources).run();
+        return batches.stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    /**
+     * Parsed, untokenized documents, with docIDs in corpus order
+     * @param dirname where the reader may save its docMaps
+     * @return
+     */
+    public static List<Document> documents(String dirname) {
+        CorpusReader reader = new CorpusReader(dirname);
+        return reader.parse(records(reader.getSources()));
+    }
+
+    /**
+     * Filter of the sample stop words
+     * @return
+     */
+    public static Filter filter() {
+        try {
+            return new StopWordFilter(DiskUtils.retrieveFilterList(STOPWORDS));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Tokenized documents, with docIDs in corpus order
+     * @return
+     */
+    public static List<Document> tokenized() {
+        String dirname = tempDir();
+        List<Document> docs = documents(dirname);
+        delete(dirname);
+        new Tokenizer(filter()).tokenize(docs);
+        return docs;
+    }
+
+    /**
+     * Build the index of the corpus into a new temporary directory
+     * @return the index directory
+     */
+    public static String index() {
+        String dirname = tempDir();
+        List<Document> docs = tokenized();
+
+        Indexer indexer = new Indexer(dirname);
+        indexer.index(docs);
+        indexer.detach();
+        indexer.save();
+        try {
+            indexer.merge(statistics(docs.size(), dirname));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return dirname;
+    }
+
+    /**
+     * Statistics of an indexed corpus, kept in memory
+     * @param corpusCount number of documents
+     * @param dirname
+     * @return
+     */
+    public static CorpusStatistics statistics(int corpusCount, String dirname) {
+        CorpusStatistics cs = new CorpusStatistics(dirname);
+        cs.setCorpusCount(corpusCount);
+        return cs;
+    }
+
+    /**
+     * Document norms of an index built by {@link #index()}
+     * @param dirname
+     * @return
+     */
+    public static DocNorms norms(String dirname) {
+        try {
+            return DocNorms.read(new File(dirname, NORMS_FILE), 0);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Map an index built by {@link #index()}
+     * @param dirname
+     * @return
+     */
+    public static MappedPostings postings(String dirname) {
+        try {
+            return new MappedPostings(new File(dirname, POSTINGS_FILE), new File(dirname, DICTIONARY_FILE));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Random queries of 1 to 4 terms, half of the terms among the 50 most frequent ones
+     * @param postings index to take the terms from
+     * @param count number of queries
+     * @return
+     */
+    public static List<List<String>> queries(MappedPostings postings, int count) {
+        List<TermDictionary.Entry> entries = new ArrayList<>();
+        postings.getDictionary().iterator(null).forEachRemaining(entries::add);
+        entries.sort(Comparator.comparingInt(TermDictionary.Entry::getDocumentFrequency).reversed());
+
+        Random random = new Random(42);
+        List<List<String>> queries = new ArrayList<>(count);
+        for (int q = 0; q < count; q++) {
+            List<String> terms = new ArrayList<>();
+            for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                int index = random.nextBoolean()
+                        ? random.nextInt(Math.min(50, entries.size()))
+                        : random.nextInt(entries.size());
+                terms.add(entries.get(index).getTerm());
+            }
+            queries.add(terms);
+        }
+        return queries;
+    }
+
+    /**
+     * Check that an iterator is not null, for terms taken from the index itself
+     * @param it
+     * @return
+     */
+    public static PostingIterator existing(PostingIterator it) {
+        if (it == null) {
+            throw new IllegalStateException("Query term not in the index");
+        }
+        return it;
+    }
+
+    /**
+     * Create a temporary directory
+     * @return its path
+     */
+    public static String tempDir() {
+        try {
+            return Files.createTempDirectory("ir-jmh").toFile().getPath();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Delete a directory and everything inside it
+     * @param dirname
+     */
+    public static void delete(String dirname) {
+        delete(new File(dirname));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
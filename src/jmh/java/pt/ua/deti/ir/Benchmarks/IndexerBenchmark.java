@@ -0,0 +1,70 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.ua.deti.ir.Indexer.Indexer;
+import pt.ua.deti.ir.Structures.Document;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flushing the indexed sample corpus as sorted runs (Indexer.save) and k-way merging them (Indexer.merge)
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexerBenchmark {
+
+    @Param({"1", "8"})
+    public int runs;
+
+    private List<Document> documents;
+    private String dirname;
+    private Indexer indexer;
+
+    @Setup
+    public void setup() {
+        documents = Fixtures.tokenized();
+    }
+
+    @Setup(Level.Invocation)
+    public void index() {
+        dirname = Fixtures.tempDir();
+        indexer = new Indexer(dirname);
+        int chunk = (documents.size() + runs - 1) / runs;
+        for (int from = 0; from < documents.size(); from += chunk) {
+            indexer.index(documents.subList(from, Math.min(from + chunk, documents.size())));
+            indexer.detach();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void clean() {
+        Fixtures.delete(dirname);
+    }
+
+    @Benchmark
+    public void saveAndMerge() throws IOException {
+        indexer.save();
+        indexer.merge(Fixtures.statistics(documents.size(), dirname));
+    }
+}
@@ -0,0 +1,63 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.ua.deti.ir.Structures.Concurrent.ConcurrentPostingMap;
+import pt.ua.deti.ir.Structures.Document;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory indexing of the tokenized sample corpus: ConcurrentPostingMap add term by term, and
+ * add of the term frequencies of a document along with its norm
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostingMapBenchmark {
+
+    private List<Document> documents;
+
+    @Setup
+    public void setup() {
+        documents = Fixtures.tokenized();
+    }
+
+    @Benchmark
+    public ConcurrentPostingMap add() {
+        ConcurrentPostingMap tmap = new ConcurrentPostingMap();
+        for (Document doc : documents) {
+            tmap.add(doc.getContent(), doc.getDocID());
+        }
+        return tmap;
+    }
+
+    @Benchmark
+    public ConcurrentPostingMap addWithNorms() {
+        ConcurrentPostingMap tmap = new ConcurrentPostingMap();
+        DocNorms norms = new DocNorms(0);
+        for (Document doc : documents) {
+            Map<String, int[]> tfs = ConcurrentPostingMap.termFrequencies(doc.getContent());
+            tmap.add(tfs, doc.getDocID());
+            norms.set(doc.getDocID(), doc.getContent().size(), DocNorms.norm(tfs.values()));
+        }
+        return tmap;
+    }
+}
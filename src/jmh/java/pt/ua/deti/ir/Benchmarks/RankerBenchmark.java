@@ -0,0 +1,150 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.ua.deti.ir.Ranker.Ranker;
+import pt.ua.deti.ir.Ranker.Similarity;
+import pt.ua.deti.ir.Structures.CorpusStatistics;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.LiveDocs;
+import pt.ua.deti.ir.Utils.Disk.MappedPostings;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranking of 100 random queries over the sample corpus index: exhaustive ranking of already searched postings,
+ * and exhaustive and top-k ranking straight from the mapped postings, with each similarity.
+ * The setup fails if the top-k ranking of a query differs from the exhaustive one on the index with deletions.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankerBenchmark {
+
+    private static final int QUERIES = 100;
+
+    @Param({"10"})
+    public int k;
+
+    @Param({"tfidf", "bm25"})
+    public String similarity;
+
+    private String dirname;
+    private MappedPostings postings;
+    private DocNorms norms;
+    private Ranker ranker;
+    private List<List<String>> queries;
+    private List<ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>>> searched;
+
+    @Setup
+    public void setup() {
+        dirname = Fixtures.index();
+        postings = Fixtures.postings(dirname);
+        norms = Fixtures.norms(dirname);
+        CorpusStatistics cs = Fixtures.statistics(Fixtures.tokenized().size(), dirname);
+        cs.setAverageDocumentLength((double) norms.getTotalLength() / norms.size());
+        ranker = new Ranker(cs, null, norms, Similarity.forName(similarity));
+        queries = Fixtures.queries(postings, QUERIES);
+
+        searched = new ArrayList<>(QUERIES);
+        for (List<String> query : queries) {
+            ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>> res = new ConcurrentHashMap<>();
+            for (String term : query) {
+                PostingIterator it = Fixtures.existing(postings.postings(term));
+                ConcurrentHashMap<Integer, Double> docs = new ConcurrentHashMap<>();
+                for (int doc = it.nextDoc(); doc != PostingIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+                    docs.put(doc, (double) it.freq());
+                }
+                res.put(term, docs);
+            }
+            searched.add(res);
+        }
+
+        verifyWithDeletions(cs);
+    }
+
+    /**
+     * Check that the top-k ranking matches the exhaustive one once 7 of every 8 documents are deleted, so the
+     * frequent terms are in more postings than there are live documents. The document frequencies still count the
+     * deleted documents, any negative contribution breaks the pruning bounds
+     * @param cs statistics of the whole index
+     */
+    private void verifyWithDeletions(CorpusStatistics cs) {
+        LiveDocs liveDocs = new LiveDocs(norms.size());
+        for (int doc = 0; doc < norms.size(); doc++) {
+            if (doc % 8 != 0) {
+                liveDocs.delete(doc);
+            }
+        }
+        // as committed by the Coordinator
+        CorpusStatistics deleted = Fixtures.statistics(norms.size() - liveDocs.getDeletedCount(), dirname);
+        deleted.setMaxDoc(norms.size());
+        deleted.setAverageDocumentLength(cs.getAverageDocumentLength());
+        Ranker pruned = new Ranker(deleted, liveDocs, norms, Similarity.forName(similarity));
+
+        for (List<String> query : queries) {
+            List<Map.Entry<Integer, Double>> topK = pruned.rankTopK(iterators(query), k).getResults();
+            List<Map.Entry<Integer, Double>> exhaustive = pruned.rankExhaustive(iterators(query), k).getResults();
+            if (!topK.equals(exhaustive)) {
+                throw new IllegalStateException("Top-k ranking of " + query + " is " + topK + ", exhaustive is " + exhaustive);
+            }
+        }
+    }
+
+    @TearDown
+    public void clean() {
+        Fixtures.delete(dirname);
+    }
+
+    @Benchmark
+    public void rankResults(Blackhole bh) {
+        for (ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>> res : searched) {
+            bh.consume(ranker.rankResults(res));
+        }
+    }
+
+    @Benchmark
+    public void rankExhaustive(Blackhole bh) {
+        for (List<String> query : queries) {
+            bh.consume(ranker.rankExhaustive(iterators(query), k));
+        }
+    }
+
+    @Benchmark
+    public void rankTopK(Blackhole bh) {
+        for (List<String> query : queries) {
+            bh.consume(ranker.rankTopK(iterators(query), k));
+        }
+    }
+
+    private Map<String, PostingIterator> iterators(List<String> query) {
+        Map<String, PostingIterator> its = new HashMap<>();
+        for (String term : query) {
+            its.put(term, postings.postings(term));
+        }
+        return its;
+    }
+}
@@ -0,0 +1,61 @@
+package pt.ua.deti.ir.Benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.ua.deti.ir.Constants;
+import pt.ua.deti.ir.Structures.Document;
+import pt.ua.deti.ir.Tokenizer.StemCache;
+import pt.ua.deti.ir.Tokenizer.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenization of the whole sample corpus, with and without the stem cache
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"true", "false"})
+    public boolean stemCache;
+
+    private List<Document> documents;
+    private Tokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        String dirname = Fixtures.tempDir();
+        documents = Fixtures.documents(dirname);
+        Fixtures.delete(dirname);
+        tokenizer = new Tokenizer(Fixtures.filter(), stemCache ? new StemCache(Constants.STEM_CACHE_SIZE) : null);
+    }
+
+    @Benchmark
+    public List<Document> tokenize() {
+        // the tokenizer consumes the body, so every run works on fresh documents
+        List<Document> docs = new ArrayList<>(documents.size());
+        for (Document doc : documents) {
+            docs.add(new Document(doc.getDocID(), doc.getBody()));
+        }
+        tokenizer.tokenize(docs);
+        return docs;
+    }
+}
@@ -0,0 +1,59 @@
+package pt.ua.deti.ir.Search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.ua.deti.ir.Benchmarks.Fixtures;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SearchEngine.search of the terms of 100 random queries over the sample corpus index.
+ * Lives in the Search package since the SearchEngine is package-private.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchEngineBenchmark {
+
+    private String dirname;
+    private SearchEngine engine;
+    private List<List<String>> queries;
+
+    @Setup
+    public void setup() {
+        dirname = Fixtures.index();
+        engine = new SearchEngine(dirname, Fixtures.STOPWORDS);
+        queries = Fixtures.queries(Fixtures.postings(dirname), 100);
+    }
+
+    @TearDown
+    public void clean() {
+        Fixtures.delete(dirname);
+    }
+
+    @Benchmark
+    public void search(Blackhole bh) {
+        for (List<String> query : queries) {
+            for (String term : query) {
+                bh.consume(engine.search(term));
+            }
+        }
+    }
+}
@@ -9,18 +9,93 @@ public class Constants {
 	
     public static final int MINIMUM_WORD_LENGTH = 2;
 
-    // group 1: Id
-    // group 2: CreationDate
-    // group 3: Score
-    // group 4: FilePath
-    // group 5: Body
-    public static final String CORPUS_REGEX_DOCUMENT = "Id:([\\d]*?),CreationDate:(.*?),Score:([\\d]*?),FilePath:(.*?),Body:(.*)";
-
     public static final String ASCII_WORD_REGEX_MATCH = "([a-zA-Z0-9]+)";
 
+    // words kept by the tokenizer stem cache
+    public static final int STEM_CACHE_SIZE = 1 << 16;
+
+    // memory budget of the search result cache, in bytes
+    public static final long QUERY_CACHE_BYTES = 16L << 20;
+
+    // results per query of a batch search run
+    public static final int BATCH_RESULTS = 100;
+
+    // ranking model of the searches, see Similarity.forName
+    public static final String SIMILARITY = "tfidf";
+
+    // BM25 term frequency saturation and document length normalization
+    public static final double BM25_K1 = 1.2;
+
+    public static final double BM25_B = 0.75;
+
+    // search server: default and maximum offset + k of a request, pending connections, pool threads per core
+    // when there are no virtual threads, and delay between checks of the index files
+    public static final int SERVER_RESULTS = 10;
+    public static final int SERVER_MAX_RESULTS = 1000;
+    public static final int SERVER_BACKLOG = 128;
+    public static final int SERVER_THREADS_PER_CORE = 4;
+    public static final long SERVER_REFRESH_MS = 1000;
+
     public static final String CORPUS_FILE_EXTENSION = ".csv";
 
     public static final int CORPUS_COUNT_HINT = 3165237; // not zero
 
     public static final String STATS_FILE = "processing.stats";
+
+    public static final String POSTINGS_FILE = "termMap.master";
+
+    public static final String DICTIONARY_FILE = "termMap.dict";
+
+    public static final String DOC_STORE_FILE = "documents.store";
+
+    public static final String DOC_PATHS_FILE = "documents.paths";
+
+    // length and norm of every document of a segment
+    public static final String NORMS_FILE = "documents.norms";
+
+    // live segments of the index, and the name prefix of the segment directories
+    public static final String SEGMENTS_FILE = "segments";
+
+    public static final String SEGMENT_PREFIX = "segment_";
+
+    // name prefix of the live documents files of a segment, followed by their generation
+    public static final String LIVE_DOCS_PREFIX = "live_";
+
+    // tiered merges: adjacent segments of the same tier merged at once, and documents of the smallest tier
+    public static final int MERGE_FACTOR = 4;
+
+    public static final int MERGE_FLOOR_DOCUMENTS = 10000;
+
+    // share of deleted documents that gets a segment rewritten on its own, purging them
+    public static final double MERGE_DELETES_RATIO = 0.3;
+
+    // final merge of the runs: concurrent partition merges, partitions per merge thread, smallest partition and
+    // share of the heap the partitions being merged may hold
+    public static final int MERGE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    public static final int MERGE_PARTITIONS_PER_THREAD = 4;
+
+    public static final long MERGE_PARTITION_MIN_BYTES = 1L << 20;
+
+    public static final double MERGE_MEMORY_RATIO = 0.25;
+
+    // documents per batch handed between pipeline stages
+    public static final int PIPELINE_BATCH_SIZE = 256;
+
+    // batches each pipeline queue holds before blocking the stage that feeds it
+    public static final int PIPELINE_QUEUE_CAPACITY = 16;
+
+    // bytes of indexed documents buffered in memory before a flush: 256 MB, or a quarter of the heap if smaller,
+    // as the next buffer fills up while the previous one is written
+    public static final long RAM_BUFFER_SIZE = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4);
+
+    // bytes of a CSV file parsed by a single thread, bigger files are split in ranges parsed concurrently
+    public static final long CSV_SPLIT_SIZE = 32L << 20;
+
+    // default pipeline workers: readers, tokenizers, indexers
+    public static final int[] PIPELINE_WORKERS = {
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 4)
+    };
 }
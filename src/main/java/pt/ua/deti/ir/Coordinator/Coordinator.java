@@ -1,31 +1,51 @@
 package pt.ua.deti.ir.Coordinator;
 
+import pt.ua.deti.ir.Indexer.DocumentDeleter;
 import pt.ua.deti.ir.Indexer.Indexer;
+import pt.ua.deti.ir.Indexer.MergeScheduler;
+import pt.ua.deti.ir.Indexer.TieredMergePolicy;
 import pt.ua.deti.ir.Log;
-import pt.ua.deti.ir.Reader.CSVParser;
 import pt.ua.deti.ir.Reader.CorpusReader;
 import pt.ua.deti.ir.Structures.CorpusStatistics;
 import pt.ua.deti.ir.Tokenizer.Filter;
 import pt.ua.deti.ir.Tokenizer.StopWordFilter;
 import pt.ua.deti.ir.Tokenizer.Tokenizer;
 import pt.ua.deti.ir.Utils.Disk.DiskUtils;
-import pt.ua.deti.ir.Utils.Mem.MemMgr;
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+import pt.ua.deti.ir.Utils.Disk.SegmentManifest;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static pt.ua.deti.ir.Constants.CORPUS_COUNT_HINT;
 import static pt.ua.deti.ir.Constants.CORPUS_FILE_EXTENSION;
+import static pt.ua.deti.ir.Constants.DICTIONARY_FILE;
+import static pt.ua.deti.ir.Constants.DOC_PATHS_FILE;
+import static pt.ua.deti.ir.Constants.DOC_STORE_FILE;
+import static pt.ua.deti.ir.Constants.NORMS_FILE;
+import static pt.ua.deti.ir.Constants.PIPELINE_WORKERS;
+import static pt.ua.deti.ir.Constants.POSTINGS_FILE;
+import static pt.ua.deti.ir.Constants.RAM_BUFFER_SIZE;
+import static pt.ua.deti.ir.Constants.STATS_FILE;
 
 /**
  * Controls the whole process of reading a corpus, tokenizing, indexing, etc
- * Contains a few tricks to force garbage collector to cleanup memory before indexation
+ * The corpus goes through a single streaming {@link Pipeline}, whose flushes print the progress, and becomes a new
+ * index segment: either the only one, replacing the whole index, or appended after the existing segments with
+ * docIDs following theirs. An update also deletes the indexed documents sharing an Id with the new ones, in the
+ * same commit. Documents can be deleted by Id without indexing anything.
+ * Once the segments are committed, small segments are merged in the background
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
@@ -35,8 +55,12 @@ public class Coordinator {
     private final String corpusPath;
     private final String filterListPath;
     private final String outputPath;
+    private final int[] workers;
+    private final boolean append;
+    private final boolean update;
+    private final long ramBufferSize;
     private long startTime;
-    private long threadTime;
+    private volatile long threadTime;
 
     /**
      * Initializes a Coordinator
@@ -45,15 +69,70 @@ public class Coordinator {
      * @param outputPath output path to save the serialized processed data
      */
     public Coordinator(String corpusPath, String filterListPath, String outputPath) {
+        this(corpusPath, filterListPath, outputPath, PIPELINE_WORKERS);
+    }
+
+    /**
+     * Initializes a Coordinator
+     * @param corpusPath path that contains corpus files
+     * @param filterListPath path that contains stopwords
+     * @param outputPath output path to save the serialized processed data
+     * @param workers number of reader, tokenizer and indexer workers of the pipeline
+     */
+    public Coordinator(String corpusPath, String filterListPath, String outputPath, int[] workers) {
+        this(corpusPath, filterListPath, outputPath, workers, false);
+    }
+
+    /**
+     * Initializes a Coordinator
+     * @param corpusPath path that contains corpus files
+     * @param filterListPath path that contains stopwords
+     * @param outputPath output path to save the serialized processed data
+     * @param workers number of reader, tokenizer and indexer workers of the pipeline
+     * @param append if true, the corpus is added to the existing index as a new segment instead of replacing it
+     */
+    public Coordinator(String corpusPath, String filterListPath, String outputPath, int[] workers, boolean append) {
+        this(corpusPath, filterListPath, outputPath, workers, append, false);
+    }
+
+    /**
+     * Initializes a Coordinator
+     * @param corpusPath path that contains corpus files
+     * @param filterListPath path that contains stopwords
+     * @param outputPath output path to save the serialized processed data
+     * @param workers number of reader, tokenizer and indexer workers of the pipeline
+     * @param append if true, the corpus is added to the existing index as a new segment instead of replacing it
+     * @param update if true, appending the corpus also deletes the indexed documents with the same Ids
+     */
+    public Coordinator(String corpusPath, String filterListPath, String outputPath, int[] workers, boolean append, boolean update) {
+        this(corpusPath, filterListPath, outputPath, workers, append, update, RAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Initializes a Coordinator
+     * @param corpusPath path that contains corpus files
+     * @param filterListPath path that contains stopwords
+     * @param outputPath output path to save the serialized processed data
+     * @param workers number of reader, tokenizer and indexer workers of the pipeline
+     * @param append if true, the corpus is added to the existing index as a new segment instead of replacing it
+     * @param update if true, appending the corpus also deletes the indexed documents with the same Ids
+     * @param ramBufferSize bytes of indexed documents buffered in memory before a flush
+     */
+    public Coordinator(String corpusPath, String filterListPath, String outputPath, int[] workers, boolean append, boolean update,
+                       long ramBufferSize) {
         this.corpusPath = corpusPath;
         this.filterListPath = filterListPath;
         this.outputPath = outputPath;
+        this.workers = workers.clone();
+        this.append = append || update;
+        this.update = update;
+        this.ramBufferSize = ramBufferSize;
     }
 
     /**
      * read directory files
      * add directory file paths to fileListQueue
-     * initiate threads
+     * run the pipeline into a new segment, merge its runs, commit it and merge the segments
      */
     @SuppressWarnings(
             {
@@ -76,105 +155,203 @@ public class Coordinator {
                 .filter(f -> f.endsWith(CORPUS_FILE_EXTENSION))
                 .collect(Collectors.toList()));
 
-        // mem management
-        MemMgr mg = new MemMgr();
-        Thread mgt = new Thread(mg);
-        mgt.start();
+        SegmentManifest manifest;
+        try {
+            manifest = SegmentManifest.read(outputPath);
+        } catch (IOException ex) {
+            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        if (append && !SegmentManifest.exists(outputPath) && new File(outputPath, POSTINGS_FILE).exists()) {
+            LOGGER.log(Level.SEVERE, "{0} holds an index without segments, rebuild it before appending", outputPath);
+            return;
+        }
+        // leftovers of an interrupted run
+        manifest.deleteUnused();
 
-        // pipeline bolts
-        CSVParser csvparser = new CSVParser(fileListQueue, mg);
-        Thread csvparsert = new Thread(csvparser);
-        csvparsert.start();
+        // statistics
+        CorpusStatistics previous = append && SegmentManifest.exists(outputPath)
+                ? (CorpusStatistics) DiskUtils.read(new File(outputPath, STATS_FILE).getPath())
+                : null;
+        CorpusStatistics cs = previous != null ? previous : new CorpusStatistics(outputPath);
+        if (!append) {
+            // the previous segments stay searchable until the new one is committed
+            manifest.clear();
+        }
 
-        // Reasoning: csvparser is starving when pipeline is running
-        csvparsert.setPriority(Thread.MAX_PRIORITY);
+        String segment = manifest.newSegmentName();
+        int firstDocID = manifest.getNextDocID();
+        String segmentPath = manifest.directory(segment).getPath();
+        LOGGER.log(Level.INFO, "Indexing into {0}, from docID {1}", new Object[]{segmentPath, firstDocID});
 
-        CorpusReader reader = new CorpusReader(outputPath);
-        Indexer indexer = new Indexer(outputPath);
+        CorpusReader reader = new CorpusReader(segmentPath, firstDocID);
+        Indexer indexer = new Indexer(segmentPath, firstDocID);
         Filter filter = new StopWordFilter(wordsSet);
         Tokenizer tokenizer = new Tokenizer(filter);
 
-        // statistics
-        CorpusStatistics cs = new CorpusStatistics(outputPath);
-        int processed_docs = indexer.getProcessed_docs();
         startTime = System.currentTimeMillis();
+        threadTime = startTime;
+        int[] lastLapProcessedDocs = {indexer.getProcessed_docs()};
 
-        while (!csvparser.isEmpty()) {
-            LOGGER.finest("Initializing a new pipeline, doing an csvparser.poll()");
-            Pipeline pipeline = new Pipeline(csvparser.poll(), reader, tokenizer, indexer);
-
-            Thread t = new Thread(pipeline);
+        Pipeline pipeline = new Pipeline(fileListQueue, reader, tokenizer, indexer, workers, ramBufferSize, flushed ->
+        {
+            printLapStats(lastLapProcessedDocs[0] + flushed, lastLapProcessedDocs[0], reader.getCorpusCount() - firstDocID);
+            lastLapProcessedDocs[0] += flushed;
             threadTime = System.currentTimeMillis();
-            t.start();
-            LOGGER.log(Level.FINEST, "Pipeline started");
+        });
+        pipeline.start();
 
-            try {
-                t.join();
-            } catch (InterruptedException ex) {
-                Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
-            }
-
-            LOGGER.log(Level.FINEST, "Pipeline ended");
-            LOGGER.log(Level.FINEST, "Memory manager reports: {0}", mg.getUsedMem());
-            LOGGER.info("Saving snapshot...");
-            reader.save();
-            indexer.save();
-            Runtime.getRuntime().gc();
-            Runtime.getRuntime().runFinalization();
-
-            printLapStats(indexer.getProcessed_docs(), processed_docs, reader.getCorpusCount());
-            processed_docs = indexer.getProcessed_docs();
+        try {
+            pipeline.join();
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (ExecutionException ex) {
+            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+            discardSegment(segmentPath);
+            return;
         }
 
         LOGGER.log(Level.INFO, "Pipeline processed all corpus");
+        LOGGER.log(Level.FINE, "Stem cache: {0}", tokenizer.getStemCache());
 
         long indexingElapsedTime = System.currentTimeMillis() - startTime;
-        long printElapsedTime = System.currentTimeMillis() - startTime - indexingElapsedTime;
 
-        //stop the mem manager and csvparser
-        mg.setStopFlag(true);
-        mgt.interrupt();
-        csvparsert.interrupt();
+        LOGGER.log(Level.FINE, "Saving done. Merging");
+        int terms;
         try {
-            mgt.join();
-            csvparsert.join();
-        } catch (InterruptedException ex) {
+            terms = indexer.merge(cs);
+        } catch (IOException ex) {
+            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+            discardSegment(segmentPath);
+            return;
+        }
+        int documents = reader.getCorpusCount() - firstDocID;
+        try {
+            if (documents > 0) {
+                if (update) {
+                    // the previous versions go away in the commit that adds the new ones
+                    int replaced = new DocumentDeleter(manifest).delete(DocumentDeleter.documentIds(new File(segmentPath)));
+                    LOGGER.log(Level.INFO, "Replaced {0} documents", replaced);
+                }
+                manifest.add(new SegmentInfo(segment, firstDocID, documents, terms, indexer.getTokenCount()));
+            }
+            commit(manifest, cs);
+        } catch (IOException ex) {
             Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+            discardSegment(segmentPath);
+            return;
+        }
+        if (!append) {
+            deleteUnsegmentedIndex();
         }
 
+        LOGGER.log(Level.FINE, "Merge done");
+        long printElapsedTime = System.currentTimeMillis() - startTime - indexingElapsedTime;
 
-        LOGGER.log(Level.FINEST, "Memory manager reports: {0}", mg.getUsedMem());
-        cs.setCorpusCount(reader.getCorpusCount()); // saves the doc count
+        System.out.format("Indexing took %.2f sec\n", indexingElapsedTime / 1000.0);
+        System.out.format("Writing files took %.2f sec\n", printElapsedTime / 1000.0);
+        System.out.format("Processed %d documents in %.2f sec\n", indexer.getProcessed_docs(), (indexingElapsedTime + printElapsedTime) / 1000.0);
 
-        //clean up some objects before merging
-        csvparsert = null;
-        csvparser = null;
-        reader = null;
-        filter = null;
-        tokenizer = null;
-        documentspath = null;
-        fileListQueue = null;
-        wordsSet = null;
+        // the new segment is already searchable, the merges only consolidate the segments
+        mergeSegments(manifest, cs);
+    }
 
-        Runtime.getRuntime().gc();
-        Runtime.getRuntime().runFinalization();
+    /**
+     * Delete the indexed documents whose original Ids are listed in a file, one per line, then merge the segments
+     * left with too many deletions
+     * @param idsPath
+     */
+    public void initiateDelete(String idsPath) {
+        if (!SegmentManifest.exists(outputPath)) {
+            LOGGER.log(Level.SEVERE, "{0} holds no index with segments, rebuild it before deleting", outputPath);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try (Stream<String> lines = Files.lines(Paths.get(idsPath))) {
+            Set<Integer> ids = lines
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .map(Integer::valueOf)
+                    .filter(id -> id >= 0)
+                    .collect(Collectors.toSet());
+
+            SegmentManifest manifest = SegmentManifest.read(outputPath);
+            manifest.deleteUnused();
+            // the counts are taken from the manifest anyway
+            CorpusStatistics previous = (CorpusStatistics) DiskUtils.read(new File(outputPath, STATS_FILE).getPath());
+            CorpusStatistics cs = previous != null ? previous : new CorpusStatistics(outputPath);
+            int deleted = new DocumentDeleter(manifest).delete(ids);
+            commit(manifest, cs);
+
+            System.out.format("Deleted %d documents of %d Ids in %.2f sec, %d documents left\n", deleted, ids.size(),
+                    (System.currentTimeMillis() - start) / 1000.0, manifest.getLiveDocumentCount());
+            mergeSegments(manifest, cs);
+        } catch (IOException | NumberFormatException ex) {
+            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
 
-        LOGGER.log(Level.FINE, "Saving done. Merging");
-        LOGGER.log(Level.FINEST, "Memory manager reports: {0}", mg.getUsedMem());
-        indexer.mergeCrazy(cs);
+    /**
+     * Commit the manifest, along with the statistics of its live segments
+     * @param manifest
+     * @param cs
+     * @throws IOException
+     */
+    private void commit(SegmentManifest manifest, CorpusStatistics cs) throws IOException {
+        cs.update(manifest);
         cs.save();
+        manifest.commit();
+        manifest.deleteUnused();
+    }
 
-        LOGGER.log(Level.FINE, "Merge done");
+    /**
+     * Delete a segment that failed before its commit. The committed manifest still names the previous segments, which
+     * stay searchable; deleteUnused is not called since the in-memory manifest may no longer list them
+     * @param segmentPath
+     */
+    private void discardSegment(String segmentPath) {
+        if (!DiskUtils.deleteRecursively(new File(segmentPath))) {
+            LOGGER.log(Level.WARNING, "Could not delete the uncommitted segment {0}", segmentPath);
+        }
+    }
 
-        System.out.format("Indexing took %.2f sec\n", indexingElapsedTime / 1000.0);
-        System.out.format("Writing files took %.2f sec\n", printElapsedTime / 1000.0);
-        System.out.format("Processed %d documents in %.2f sec\n", indexer.getProcessed_docs(), (indexingElapsedTime + printElapsedTime) / 1000.0);
+    /**
+     * Merge the segments chosen by the merge policy, until there is nothing left to merge
+     * @param manifest
+     * @param cs
+     */
+    private void mergeSegments(SegmentManifest manifest, CorpusStatistics cs) {
+        long mergeStartTime = System.currentTimeMillis();
+        MergeScheduler merges = new MergeScheduler(manifest, new TieredMergePolicy(), () ->
+        {
+            cs.update(manifest);
+            cs.save();
+        });
+        merges.maybeMerge();
+        try {
+            merges.close();
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        // merged segments left without documents
+        manifest.deleteUnused();
+        System.out.format("Index has %d segments, merging took %.2f sec\n", manifest.getSegments().size(),
+                (System.currentTimeMillis() - mergeStartTime) / 1000.0);
+    }
+
+    /**
+     * Delete the files of an index written before segments, directly in the output directory
+     */
+    private void deleteUnsegmentedIndex() {
+        for (String name : new String[]{POSTINGS_FILE, DICTIONARY_FILE, DOC_STORE_FILE, DOC_PATHS_FILE, NORMS_FILE}) {
+            new File(outputPath, name).delete();
+        }
     }
 
     /**
-     * Prints statistics every lap
+     * Prints statistics every flush
      * @param processedDocs number of processed docs
-     * @param lastLapProcessedDocs last lap processed docs
+     * @param lastLapProcessedDocs processed docs at the last flush
      * @param corpusCount current corpus count
      */
     private void printLapStats(int processedDocs, int lastLapProcessedDocs, int corpusCount) {
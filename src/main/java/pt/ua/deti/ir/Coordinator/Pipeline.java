@@ -1,92 +1,209 @@
 package pt.ua.deti.ir.Coordinator;
 
 import pt.ua.deti.ir.Indexer.Indexer;
+import pt.ua.deti.ir.Log;
+import pt.ua.deti.ir.Reader.CSVParser;
 import pt.ua.deti.ir.Reader.CorpusReader;
 import pt.ua.deti.ir.Structures.Document;
 import pt.ua.deti.ir.Tokenizer.Tokenizer;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static pt.ua.deti.ir.Constants.PIPELINE_BATCH_SIZE;
+import static pt.ua.deti.ir.Constants.PIPELINE_QUEUE_CAPACITY;
 
 /**
- * Pipeline is a thread that runs a set of documents though the processing pipeline, which
- * includes reading and parsing the corpus, tokenization, stemming and indexing
+ * Pipeline runs the corpus through the processing stages, which include reading and parsing the corpus,
+ * tokenization, stemming, indexing and flushing the index to disk.
+ * Every stage runs continuously on its own worker threads, connected to the next stage by a bounded queue of
+ * document batches, so all the stages overlap and a slow stage holds back the ones before it.
+ * The reader and the indexer account for the bytes of every document they buffer, and indexing workers request a
+ * flush once the buffers reach the RAM buffer size, whatever the garbage collector did or did not reclaim yet.
+ * A dedicated thread writes the document store records and the index run while indexing goes on in a fresh map.
+ * If a stage or a flush fails, the rest of the corpus is dropped and {@link #join()} throws the failure.
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
-class Pipeline implements Runnable {
+class Pipeline {
 
-    private final ConcurrentLinkedQueue<String> stringsQueue;      // reference where to poll more work from
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
     private final CorpusReader reader;
-    private final Tokenizer tokenizer;
     private final Indexer indexer;
-    private PipelineState state;        // state of the thread
-    private int processed_documents;    // counter of processed documents
-    private boolean up;                 // if true, keep thread alive and running
-    private List<Document> doclist;
+    private final IntConsumer onFlush;
+    private final long ramBufferSize;
+    private final List<Thread> threads = new ArrayList<>();
+    // documents detached by each pending flush, a negative count stops the flusher
+    private final BlockingQueue<Integer> flushRequests = new ArrayBlockingQueue<>(1);
+    private final Thread flusher;
+    // first failure of a stage or of the flusher
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
 
     /**
      * Initializes a pipeline
-     * @param stringsQueue Queue with documents flattened in a single string line
+     * @param fileQueue CSV filepaths queue
      * @param reader Corpus Reader to use
      * @param tokenizer Tokenizer to use
      * @param indexer Indexer to use
+     * @param workers number of CSV parsing, tokenizer and indexer workers
+     * @param ramBufferSize bytes buffered by the reader and the indexer that trigger a flush
+     * @param onFlush called after every flush with the number of flushed documents
      */
-    public Pipeline(ConcurrentLinkedQueue<String> stringsQueue,
+    public Pipeline(Queue<String> fileQueue,
                     CorpusReader reader,
                     Tokenizer tokenizer,
-                    Indexer indexer) {
-        this.stringsQueue = stringsQueue;
-        this.tokenizer = tokenizer;
-        this.indexer = indexer;
+                    Indexer indexer,
+                    int[] workers,
+                    long ramBufferSize,
+                    IntConsumer onFlush) {
         this.reader = reader;
-        this.state = PipelineState.IDLE;
+        this.indexer = indexer;
+        this.onFlush = onFlush;
+        this.ramBufferSize = ramBufferSize;
+
+        BlockingQueue<List<Document>> records = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+        BlockingQueue<List<Document>> parsed = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+        BlockingQueue<List<Document>> tokenized = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+
+        Thread csvparser = new Thread(new CSVParser(fileQueue, records, PIPELINE_BATCH_SIZE, reader.getSources(), workers[0]), "CSVParser");
+        // Reasoning: csvparser is the only producer, it must not starve
+        csvparser.setPriority(Thread.MAX_PRIORITY);
+        threads.add(csvparser);
+
+        // a single worker numbers the batches in the order the parser hands them over, so docIDs are deterministic
+        addStage("Reader", 1, records, parsed, reader::parse);
+        addStage("Tokenizer", workers[1], parsed, tokenized, doclist ->
+        {
+            tokenizer.tokenize(doclist);
+            return doclist;
+        });
+        addStage("Indexer", workers[2], tokenized, null, doclist ->
+        {
+            indexer.index(doclist);
+            if (shouldFlush()) {
+                requestFlush();
+            }
+            return Collections.emptyList();
+        });
+
+        flusher = new Thread(this::flushLoop, "Flusher");
+    }
+
+    /**
+     * Start every stage
+     */
+    public void start() {
+        flusher.start();
+        threads.forEach(Thread::start);
+        LOGGER.log(Level.FINEST, "Pipeline started with {0} threads", threads.size() + 1);
+    }
+
+    /**
+     * Wait until the whole corpus went through the pipeline, and flush what is left
+     * @throws InterruptedException
+     * @throws ExecutionException if a stage or a flush failed, nothing is flushed then
+     */
+    public void join() throws InterruptedException, ExecutionException {
+        for (Thread t : threads) {
+            t.join();
+        }
+        flushRequests.put(-1);
+        flusher.join();
+        if (failure.get() != null) {
+            throw new ExecutionException(failure.get());
+        }
 
-        processed_documents = 0;
-        up = true;
+        reader.detach();
+        flush(indexer.detach());
+        LOGGER.log(Level.FINEST, "Pipeline ended");
     }
 
-    @Override
-    public void run() {
-        state = PipelineState.IDLE;
-
-        while (up) {
-            /*
-              Process the pipeline
-             */
-            switch (state) {
-                case IDLE:
-                    this.state = PipelineState.ReadingCorpus;
-                    break;
-                case ReadingCorpus:
-                    doclist = reader.parse(stringsQueue);
-                    if (doclist == null) {
-                        // skip because of bad encoding or something
-                        state = PipelineState.IDLE;
-                        this.up = false;
-                        break;
+    /**
+     * Create the worker threads of a stage
+     */
+    private <I, O> void addStage(String name,
+                                 int count,
+                                 BlockingQueue<List<I>> input,
+                                 BlockingQueue<List<O>> output,
+                                 Function<List<I>, List<O>> work) {
+        AtomicInteger running = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            threads.add(new Thread(new Stage<>(name, input, output, work, running, failure), name + "-" + i));
+        }
+    }
+
+    /**
+     * Check if the buffered documents should be flushed
+     * @return
+     */
+    private boolean shouldFlush() {
+        return indexer.getBufferedBytes() + reader.getBufferedBytes() >= ramBufferSize;
+    }
+
+    /**
+     * Detach the buffered documents and queue them to be written by the flush thread.
+     * Blocks while the previous flush is still pending, so memory is bounded by two buffers
+     */
+    private synchronized void requestFlush() {
+        // other workers may have requested it while this one waited
+        if (!shouldFlush()) {
+            return;
+        }
+        reader.detach();
+        int detached = indexer.detach();
+        try {
+            flushRequests.put(detached);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flush thread body, serves flush requests until a negative one. After a failure the requests are only taken, so
+     * the indexing workers never block on them
+     */
+    private void flushLoop() {
+        try {
+            int detached;
+            while ((detached = flushRequests.take()) >= 0) {
+                if (failure.get() != null) {
+                    continue;
+                }
+                try {
+                    flush(detached);
+                } catch (RuntimeException | Error ex) {
+                    if (failure.compareAndSet(null, ex)) {
+                        Logger.getLogger(Pipeline.class.getName()).log(Level.SEVERE, null, ex);
                     }
-                    state = PipelineState.Tokenizing;
-                    break;
-                case Tokenizing:
-                    tokenizer.tokenize(doclist);
-                    state = PipelineState.Indexing;
-                    break;
-                case Indexing:
-                    indexer.index(doclist);
-
-                    processed_documents += doclist.size();
-                    indexer.setProcessed_docs(indexer.getProcessed_docs() + processed_documents);
-
-                    state = PipelineState.IDLE;
-                    this.up = false;
-                    break;
-                case FAIL:
-                    break;
-                default:
-                    break;
+                }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
+        LOGGER.log(Level.FINEST, "Flusher stopped");
     }
 
+    /**
+     * Save a snapshot of the detached documents: their document store records and the index run
+     * @param detached number of detached documents
+     */
+    private void flush(int detached) {
+        LOGGER.info("Saving snapshot...");
+        reader.save();
+        indexer.save();
+        if (detached > 0) {
+            onFlush.accept(detached);
+        }
+    }
 }
@@ -1,9 +0,0 @@
-package pt.ua.deti.ir.Coordinator;
-
-public enum PipelineState {
-    FAIL,
-    IDLE,
-    ReadingCorpus,
-    Tokenizing,
-    Indexing,
-}
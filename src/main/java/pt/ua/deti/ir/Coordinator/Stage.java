@@ -0,0 +1,111 @@
+package pt.ua.deti.ir.Coordinator;
+
+import pt.ua.deti.ir.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A worker of a pipeline stage: takes batches from the input queue, processes them and puts the result into the
+ * output queue, blocking when the next stage is full (backpressure).
+ * An empty batch marks the end of the stream. The worker that takes it puts it back for its siblings, and the last
+ * worker of the stage to finish forwards it to the next stage, even if it failed.
+ * A batch that can not be processed fails the whole pipeline: the first failure is recorded and, from then on, every
+ * worker drops the batches it takes, so no stage blocks on a full queue and the end of the stream still gets through.
+ *
+ * @param <I> type of the input batch elements
+ * @param <O> type of the output batch elements
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+class Stage<I, O> implements Runnable {
+
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+    private final String name;
+    private final BlockingQueue<List<I>> input;
+    private final BlockingQueue<List<O>> output;   // null on the last stage
+    private final Function<List<I>, List<O>> work;
+    private final AtomicInteger running;            // workers of this stage still running
+    private final AtomicReference<Throwable> failure; // first failure of the pipeline
+
+    /**
+     * Initializes a stage worker
+     * @param name stage name, for logging
+     * @param input queue where to take batches from
+     * @param output queue where to put the processed batches, or null if the stage produces nothing
+     * @param work processing of a batch
+     * @param running counter of running workers, shared by every worker of the stage
+     * @param failure first failure, shared by every worker of the pipeline
+     */
+    Stage(String name,
+          BlockingQueue<List<I>> input,
+          BlockingQueue<List<O>> output,
+          Function<List<I>, List<O>> work,
+          AtomicInteger running,
+          AtomicReference<Throwable> failure) {
+        this.name = name;
+        this.input = input;
+        this.output = output;
+        this.work = work;
+        this.running = running;
+        this.failure = failure;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                List<I> batch = input.take();
+                if (batch.isEmpty()) {
+                    input.put(batch);
+                    break;
+                }
+                if (failure.get() != null) {
+                    continue;
+                }
+                List<O> result;
+                try {
+                    result = work.apply(batch);
+                } catch (RuntimeException | Error ex) {
+                    if (failure.compareAndSet(null, ex)) {
+                        Logger.getLogger(Stage.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                    continue;
+                }
+                if (output != null && !result.isEmpty()) {
+                    output.put(result);
+                }
+            }
+            LOGGER.log(Level.FINEST, "{0} worker done", name);
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.FINEST, "{0} worker killed", name);
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0 && output != null) {
+                forwardEnd();
+            }
+        }
+    }
+
+    /**
+     * Put the end of the stream into the output queue, even if this worker was interrupted
+     */
+    private void forwardEnd() {
+        boolean interrupted = Thread.interrupted();
+        try {
+            output.put(Collections.emptyList());
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package pt.ua.deti.ir.Indexer;
+
+import pt.ua.deti.ir.Utils.Disk.DocStore;
+import pt.ua.deti.ir.Utils.Disk.LiveDocs;
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+import pt.ua.deti.ir.Utils.Disk.SegmentManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static pt.ua.deti.ir.Constants.DOC_PATHS_FILE;
+import static pt.ua.deti.ir.Constants.DOC_STORE_FILE;
+
+/**
+ * Deletes documents by their original Id. The document stores of the live segments are scanned for the Ids, and
+ * every segment holding one gets a new generation of its {@link LiveDocs}, replacing the segment in the manifest.
+ * Nothing is searchable until the manifest is committed, so deletions and the segment that replaces the deleted
+ * documents become visible at once. The postings of deleted documents stay in the segment until it is merged.
+ * Must not run while segments are being merged.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class DocumentDeleter {
+
+    private final SegmentManifest manifest;
+
+    /**
+     * Initializes a DocumentDeleter
+     * @param manifest manifest of the index directory
+     */
+    public DocumentDeleter(SegmentManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Delete every live document with one of the given Ids, from every live segment of the manifest
+     * @param ids original document Ids
+     * @return the number of deleted documents
+     * @throws IOException
+     */
+    public int delete(Set<Integer> ids) throws IOException {
+        int total = 0;
+        if (ids.isEmpty()) {
+            return total;
+        }
+        for (SegmentInfo segment : manifest.getSegments()) {
+            File dir = manifest.directory(segment.getName());
+            DocStore docs = new DocStore(new File(dir, DOC_STORE_FILE), new File(dir, DOC_PATHS_FILE));
+            LiveDocs current = LiveDocs.read(dir, segment);
+            LiveDocs live = current == null ? new LiveDocs(segment.getDocumentCount()) : current.copy();
+
+            int deleted = 0;
+            for (int doc = 0; doc < docs.getDocumentCount() && doc < segment.getDocumentCount(); doc++) {
+                if (ids.contains(docs.getId(doc)) && live.delete(doc)) {
+                    deleted++;
+                }
+            }
+            if (deleted == 0) {
+                continue;
+            }
+
+            SegmentInfo updated = segment.withDeletions(live.getDeletedCount());
+            live.write(new File(dir, updated.getLiveDocsFile()));
+            manifest.update(updated);
+            total += deleted;
+        }
+        return total;
+    }
+
+    /**
+     * Original Ids of the documents of a segment directory
+     * @param dir
+     * @return the known Ids
+     * @throws IOException
+     */
+    public static Set<Integer> documentIds(File dir) throws IOException {
+        DocStore docs = new DocStore(new File(dir, DOC_STORE_FILE), new File(dir, DOC_PATHS_FILE));
+        Set<Integer> ids = new HashSet<>(docs.getDocumentCount() * 2);
+        for (int doc = 0; doc < docs.getDocumentCount(); doc++) {
+            int id = docs.getId(doc);
+            if (id >= 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+}
@@ -1,299 +1,394 @@
 package pt.ua.deti.ir.Indexer;
 
-import pt.ua.deti.ir.Structures.Concurrent.ConcurrentTermMap;
+import pt.ua.deti.ir.Structures.Concurrent.ConcurrentPostingMap;
 import pt.ua.deti.ir.Structures.CorpusStatistics;
 import pt.ua.deti.ir.Structures.Document;
+import pt.ua.deti.ir.Structures.PostingList;
 import pt.ua.deti.ir.Utils.Disk.DiskManager;
-import pt.ua.deti.ir.Utils.Mem.MemUtil;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+import pt.ua.deti.ir.Utils.Disk.PostingReader;
+import pt.ua.deti.ir.Utils.Disk.PostingWriter;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.IntSupplier;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import static pt.ua.deti.ir.Constants.DICTIONARY_FILE;
+import static pt.ua.deti.ir.Constants.NORMS_FILE;
+import static pt.ua.deti.ir.Constants.POSTINGS_FILE;
+
 /**
- * Indexing is the process where the tokens are normalized using the LNC approach and saved to disk.
- * Due to dynamic memory resources that are available in different hosts serialization can split the files according
- * to the available memory using the following strategy:
- * 1. Try to index first char
- * 2. Does it fit? Good. Write to disk. (file a, b, c, etc..)
- * 3. Memory exhausted? Split first char in a 2nd level ( aa, ab, ac, ad, ...)
+ * Indexing is the process where the tokens of every document are counted into term frequencies and saved to disk.
+ * Each worker counts the term frequency vector of a document on its own, so the shared term map only sees one
+ * posting per (term, document), and the length and norm of the document go to the {@link DocNorms} of the segment,
+ * written next to the postings. The postings keep the raw frequencies, the ranking weights are computed out of them.
+ * Every flush writes a term-sorted run, and the runs are k-way merged into the master term map at the end,
+ * along with a front-coded term dictionary. The same merge consolidates index segments.
  *
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class Indexer {
 
-    private final ConcurrentTermMap tmap = new ConcurrentTermMap();
-    private final int splitLevel;
+    private static final String RUN_EXTENSION = ".termMap.run";
+
+    // indexing workers share the read lock, a flush swaps the map under the write lock
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock(true);
+    private volatile ConcurrentPostingMap tmap = new ConcurrentPostingMap();
+    private final Queue<ConcurrentPostingMap> detached = new ConcurrentLinkedQueue<>();
     //diskmgr bits
     private final DiskManager dm;
-    private int processed_docs;
+    private final AtomicInteger runs;
+    private final AtomicInteger processed_docs = new AtomicInteger(0);
+    private final AtomicInteger buffered_docs = new AtomicInteger(0);
+    // length and norm of every document indexed, guarded by its own monitor
+    private final DocNorms norms;
+    // first run that could not be written, its documents are lost so the merge must fail
+    private volatile IOException failure;
 
     /**
-     * Initializes the Indexer
+     * Initializes the Indexer whose docIDs start at 0
      * @param dirname directory name to where to write the index files
      */
     public Indexer(String dirname) {
-        processed_docs = 0;
-        dm = new DiskManager(dirname);
+        this(dirname, 0);
+    }
 
-        if (MemUtil.getMaxMem(Runtime.getRuntime()) >= 910) {
-            splitLevel = 1;
-        } else {
-            splitLevel = 2;
-        }
+    /**
+     * Initializes the Indexer
+     * @param dirname directory name to where to write the index files
+     * @param firstDocID docID of the first document of the segment
+     */
+    public Indexer(String dirname, int firstDocID) {
+        dm = new DiskManager(dirname);
+        norms = new DocNorms(firstDocID);
+        runs = new AtomicInteger((int) dm.getRFiles().stream().filter(f -> f.getName().endsWith(RUN_EXTENSION)).count());
     }
 
     /**
      * Processes a document and adds it to the indexes to the merge queue
      *
      * @param doc to process
+     * @return norm of the document
      */
-    private void index(Document doc) {
-        tmap.add(doc.getContent(), doc.getDocID());
-        tmap.computeLNC(doc.getContent(), doc.getDocID());
+    private float index(ConcurrentPostingMap tmap, Document doc) {
+        Map<String, int[]> tfs = ConcurrentPostingMap.termFrequencies(doc.getContent());
+        tmap.add(tfs, doc.getDocID());
+        return DocNorms.norm(tfs.values());
     }
-    
+
     /**
-     * Processes a list of documents and adds them to the indexes to the merge queue 
+     * Processes a list of documents and adds them to the indexes to the merge queue.
+     * Safe to call from several threads, the whole list lands in the same run.
      * @param doclist to process
      */
     public void index(List<Document> doclist) {
-        doclist.parallelStream().forEach(this::index);
-        tmap.resetIDFaux();
+        flushLock.readLock().lock();
+        try {
+            ConcurrentPostingMap current = tmap;
+            float[] docNorms = new float[doclist.size()];
+            for (int i = 0; i < docNorms.length; i++) {
+                docNorms[i] = index(current, doclist.get(i));
+            }
+            synchronized (norms) {
+                for (int i = 0; i < docNorms.length; i++) {
+                    Document doc = doclist.get(i);
+                    norms.set(doc.getDocID(), doc.getContent().size(), docNorms[i]);
+                }
+            }
+            buffered_docs.addAndGet(doclist.size());
+            processed_docs.addAndGet(doclist.size());
+        } finally {
+            flushLock.readLock().unlock();
+        }
     }
-    
+
     /**
      * Retrieves the number of processed documents by the indexer
      * @return
      */
     public int getProcessed_docs() {
-        return processed_docs;
+        return processed_docs.get();
+    }
+
+    /**
+     * Retrieves the number of tokens of the processed documents
+     * @return
+     */
+    public long getTokenCount() {
+        synchronized (norms) {
+            return norms.getTotalLength();
+        }
     }
 
     /**
-     * Sets the number of processed documents by the indexer
-     * @param processed_docs
+     * Retrieves the number of documents indexed since the last flush
+     * @return
      */
-    public void setProcessed_docs(int processed_docs) {
-        this.processed_docs = processed_docs;
+    public int getBuffered_docs() {
+        return buffered_docs.get();
     }
 
-    /*
-      HERE BE DRAGONS!!
+    /**
+     * Retrieves the heap usage of the documents indexed since the last flush, in bytes
+     * @return
      */
+    public long getBufferedBytes() {
+        return tmap.sizeInBytes();
+    }
 
     /**
-     * This method writes this class ConcurrentTermMap into disk, in a
-     * serialized way, splitting the terms in it into different files, grouped
-     * by their first letter, emptying the map completely. It does not provide a
-     * way to control how much of the map we are writing to disk
+     * Detach the documents indexed so far: they stop being indexed into and wait in memory for the next
+     * {@link #save()}. Cheap, indexing only waits for the map swap
+     * @return number of documents detached
      */
-    public void save() {
-        if (tmap.getTmap().isEmpty()) {
-            return;
+    public int detach() {
+        flushLock.writeLock().lock();
+        try {
+            if (buffered_docs.get() == 0) {
+                return 0;
+            }
+            detached.add(tmap);
+            tmap = new ConcurrentPostingMap();
+            return buffered_docs.getAndSet(0);
+        } finally {
+            flushLock.writeLock().unlock();
         }
-        tmap.getTmap().entrySet()
-                .parallelStream()
-                .collect(Collectors.groupingByConcurrent(e -> e.getKey().substring(0, ((IntSupplier) () ->
-                {
-                    if (e.getKey().length() > 1) {
-                        return splitLevel;
-                    } else {
-                        return 1;
-                    }
-                }).getAsInt()).replace(".", "").toLowerCase()))
-                .entrySet()
-                .forEach(entry ->
-                {
-                    if (entry != null) {
-                        String fileName = entry.getKey() + ".termMap." + (dm.dirCountContains(entry.getKey()));
-
-                        //remove the entries (from tmap) that we are about to write into disk
-                        entry.getValue().parallelStream()
-                                .forEach((t) -> tmap.remove(t.getKey()));
-
-                        ConcurrentTermMap map = new ConcurrentTermMap();
-
-                        entry.getValue().parallelStream()
-                                .forEach(e -> map.put(e.getKey(), e.getValue()));
-
-                        dm.write(fileName, map.getTmap());
-                    }
-                });
     }
-    
+
     /**
-     * Saves a ConcurrentTermMap to disk (by using the DiskManager)
-     * @param tmap
+     * Single-pass in-memory indexing (SPIMI) flush: writes every detached ConcurrentPostingMap into disk as a run,
+     * with its terms sorted in {@link PostingWriter#TERM_ORDER} and each posting list sorted by docID.
+     * A run that can not be written is deleted and the failure is kept, to be thrown by {@link #merge}
      */
-    private void save(ConcurrentTermMap tmap) {
-        if (tmap.getTmap().isEmpty()) {
-            return;
+    public synchronized void save() {
+        ConcurrentPostingMap tmap;
+        while ((tmap = detached.poll()) != null) {
+            List<String> terms = tmap.terms();
+            terms.sort(PostingWriter.TERM_ORDER);
+
+            File run = new File(dm.dirname + "/" + runs.getAndIncrement() + RUN_EXTENSION);
+            try (PostingWriter writer = new PostingWriter(run)) {
+                for (String term : terms) {
+                    PostingList postings = tmap.get(term);
+                    postings.sort();
+                    writer.write(term, postings);
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(Indexer.class.getName()).log(Level.SEVERE, null, ex);
+                run.delete();
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
         }
-        tmap.getTmap().entrySet()
-                .parallelStream()
-                .collect(Collectors.groupingByConcurrent(e -> e.getKey().substring(0, ((IntSupplier) () ->
-                {
-                    if (e.getKey().length() > 1) {
-                        return 2;
-                    } else {
-                        return 1;
-                    }
-                }).getAsInt()).replace(".", "").toLowerCase()))
-                .entrySet()
-                .forEach(entry ->
-                {
-                    if (entry != null) {
-                        String fileName = entry.getKey() + ".termMap.part." + (dm.dirCountContains(entry.getKey()));
+    }
 
-                        //remove the entries (from tmap) that we are about to write into disk
-                        entry.getValue().parallelStream()
-                                .forEach((t) -> tmap.remove(t.getKey()));
+    /**
+     * Streaming k-way merge of every run into the master term map and its term dictionary, and write the norms of
+     * the indexed documents.
+     * @param cs statistics whose token count is incremented by the number of merged terms
+     * @return number of terms of the master term map
+     * @throws IOException if a run could not be written, or the merge failed
+     */
+    public int merge(CorpusStatistics cs) throws IOException {
+        List<File> runFiles = dm.getRFiles()
+                .stream()
+                .filter(f -> f.getName().endsWith(RUN_EXTENSION))
+                .sorted(Comparator.comparingInt(f -> Integer.parseInt(f.getName().substring(0, f.getName().indexOf('.')))))
+                .collect(Collectors.toList());
 
-                        ConcurrentTermMap map = new ConcurrentTermMap();
+        try {
+            if (failure != null) {
+                throw new IOException("Documents lost in a run that could not be written", failure);
+            }
+            synchronized (norms) {
+                norms.write(new File(dm.dirname + "/" + NORMS_FILE));
+            }
+            int terms = merge(runFiles, norms, new File(dm.dirname + "/" + POSTINGS_FILE), new File(dm.dirname + "/" + DICTIONARY_FILE));
+            cs.incTokenCount(terms);
+            return terms;
+        } finally {
+            runFiles.forEach(file ->
+            {
+                dm.rfilesRemove(file.getName());
+                file.delete();
+            });
+        }
+    }
 
-                        entry.getValue().parallelStream()
-                                .forEach(e -> map.put(e.getKey(), e.getValue()));
+    /**
+     * Streaming k-way merge of posting files (runs or the master term maps of segments) into a master term map and
+     * its term dictionary.
+     * A priority queue holds the current term of each input, so memory is bounded by the input buffers and the
+     * posting list of a single term. The postings of a term are concatenated in input order: concurrent indexing
+     * workers may flush a document into a later run than a document with a bigger docID, so they are only sorted
+     * again when they are out of order.
+     * Term ranges are merged concurrently by a {@link PartitionMergeScheduler}.
+     * @param inputs posting files, in docID order
+     * @param norms norms of the merged documents, that bound the weights of the written postings
+     * @param postingsFile master term map to write
+     * @param dictionaryFile term dictionary to write
+     * @return number of terms written
+     * @throws IOException
+     */
+    public static int merge(List<File> inputs, DocNorms norms, File postingsFile, File dictionaryFile) throws IOException {
+        return merge(inputs, Collections.nCopies(inputs.size(), null), norms, postingsFile, dictionaryFile);
+    }
 
-                        dm.write(fileName, map.getTmap());
-                    }
-                });
+    /**
+     * Streaming k-way merge of posting files whose docIDs are mapped on the way: every posting of an input goes
+     * through the docID map of the input, and is dropped when mapped to a negative docID. Terms left without
+     * postings are not written. Purges the deleted documents of merged segments
+     * @param inputs posting files, in docID order
+     * @param docMaps docID map of every input, null to keep its docIDs; must keep the docID order of the postings
+     * @param norms norms of the merged documents, by their mapped docIDs
+     * @param postingsFile master term map to write
+     * @param dictionaryFile term dictionary to write
+     * @return number of terms written
+     * @throws IOException
+     */
+    public static int merge(List<File> inputs, List<IntUnaryOperator> docMaps, DocNorms norms, File postingsFile,
+                            File dictionaryFile) throws IOException {
+        return new PartitionMergeScheduler().merge(inputs, docMaps, norms, postingsFile, dictionaryFile);
     }
-    
+
     /**
-     * Index partitions merge that uses a dynamic multi level term map splitting based on the current memory and overall size of the complete master term map
-     * It writes the resulting term maps into disk
-     * @param cs
+     * Streaming k-way merge of a range of terms of posting files, the merge of a single partition
+     * @param inputs posting files, in docID order
+     * @param starts file offset of the first record of the range in every input, negative if an input has none
+     * @param until partition key where the range ends (exclusive), or null to merge up to the end of the files
+     * @param docMaps docID map of every input, null to keep its docIDs
+     * @param norms norms of the merged documents, by their mapped docIDs
+     * @param postingsFile term map to write
+     * @param dictionaryFile term dictionary to write
+     * @return number of terms written
+     * @throws IOException
      */
-    @SuppressWarnings("unchecked")
-	public void mergeCrazy(CorpusStatistics cs) {
-        //merge
-        dm.getRFiles()
-                .parallelStream()
-                .filter(e -> !e.getName().contains("termMap.master"))
-                .filter(e -> !e.getName().contains("termMap.part"))
-                .filter(e -> e.getName().contains("termMap."))
-                .collect(Collectors.groupingByConcurrent(e -> e.getName().substring(0, ((IntSupplier) () ->
-                {
-                    if (e.getName().length() > 1) {
-                        return splitLevel;
-                    } else {
-                        return 1;
-                    }
+    static int merge(List<File> inputs, long[] starts, String until, List<IntUnaryOperator> docMaps, DocNorms norms,
+                     File postingsFile, File dictionaryFile) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(inputs.size(), 1));
+
+        try (PostingWriter master = new PostingWriter(postingsFile, dictionaryFile, norms)) {
+            for (int i = 0; i < inputs.size(); i++) {
+                if (starts[i] < 0) {
+                    continue;
+                }
+                Run run = new Run(i, new PostingReader(inputs.get(i), starts[i]), until, docMaps.get(i));
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                String term = queue.peek().reader.getTerm();
+                PostingList postings = new PostingList();
 
-                }).getAsInt()).replace(".", "").toLowerCase()))
-                .entrySet()
-                .forEach(filelist ->
-                {
-                    AtomicLong size = new AtomicLong();
-
-                    ConcurrentTermMap master = new ConcurrentTermMap();
-                    AtomicBoolean todisk = new AtomicBoolean(false);
-                    filelist.getValue()
-                            .forEach(file ->
-                            {
-                                if (MemUtil.getMaxMem(Runtime.getRuntime()) <= 910) {
-                                    if (MemUtil.toMB(size.addAndGet(file.length())) * 10 >= MemUtil.getFreeMem(Runtime.getRuntime())) {
-                                        //no space
-                                        save(master);
-                                        master.getTmap().entrySet().parallelStream().forEach(entry -> master.remove(entry.getKey()));
-                                        todisk.set(true);
-                                        Runtime.getRuntime().gc();
-                                        Runtime.getRuntime().runFinalization();
-                                    }
-                                }
-
-                                ((ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>>) dm.read(file.getPath())).entrySet()
-                                        .parallelStream()
-                                        .forEach((t) ->
-                                                master.putMaster(t.getKey(), t.getValue()));
-
-                                if (file.exists()) {
-                                    dm.rfilesRemove(file.getName());
-                                    file.delete();
-                                }
-                            });
-                    if (todisk.get()) {
-                        save(master);
-                        master.getTmap().clear();
-                        Runtime.getRuntime().gc();
-                        Runtime.getRuntime().runFinalization();
-                        merge();
+                // pop every input positioned on this term, in input order
+                while (!queue.isEmpty() && queue.peek().reader.getTerm().equals(term)) {
+                    Run run = queue.poll();
+                    run.readPostings(postings);
+                    if (run.next()) {
+                        queue.add(run);
                     } else {
-                        File f = new File(dm.dirname + "/" + filelist.getKey() + ".termMap.master");
-                        if (f.exists()) {
-                            dm.rfilesRemove(f.getName());
-                            f.delete();
-                        }
-                        //increment token count before saving
-                        cs.incTokenCount(master.getTokenCount());
-
-                        dm.write(filelist.getKey() + ".termMap.master", master.getTmap());
+                        run.close();
                     }
+                }
 
-                });
+                if (postings.size() == 0) {
+                    continue;
+                }
+                if (!postings.isSorted()) {
+                    postings.sort();
+                }
+                master.write(term, postings);
+            }
+
+            return master.getTermCount();
+        } finally {
+            queue.forEach(Run::close);
+        }
     }
-    
+
     /**
-     * Index partitions merge with a fixed splitting level
-     * It writes the resulting term maps into disk
+     * An input being merged, ordered by its current term and then by its position in the input sequence
      */
-    @SuppressWarnings("unchecked")
-    private void merge() {
-        //merge
-        dm.getRFiles()
-                .parallelStream()
-                .filter(e -> e.getName().contains("termMap.part."))
-                .collect(Collectors.groupingByConcurrent(e -> e.getName().substring(0, ((IntSupplier) () ->
-                {
-                    if (e.getName().length() > 1) {
-                        return 2;
-                    } else {
-                        return 1;
-                    }
+    private static class Run implements Comparable<Run> {
 
-                }).getAsInt()).replace(".", "").toLowerCase()))
-                .entrySet()
-                .forEach(filelist ->
-                {
-                    ConcurrentTermMap master = new ConcurrentTermMap();
-
-                    filelist.getValue()
-                            .forEach(file ->
-                            {
-
-                                ((ConcurrentHashMap<String, ConcurrentHashMap<Integer, Integer>>) dm.read(file.getPath())).entrySet()
-                                        .parallelStream()
-                                        .forEach(termEntry ->
-                                        {
-                                            // key: Token; Value: HashMap
-                                            termEntry.getValue()
-                                                    .entrySet()
-                                                    .parallelStream()
-                                                    .forEach(docIDEntry
-                                                            -> // for each token add an document
-                                                            master.add(termEntry.getKey(), docIDEntry.getKey())
-                                                    );
-                                        });
-
-                                if (file.exists()) {
-                                    dm.rfilesRemove(file.getName());
-                                    file.delete();
-                                }
-                            });
-
-                    File f = new File(dm.dirname + "/" + filelist.getKey() + ".termMap.master");
-                    if (f.exists()) {
-                        dm.rfilesRemove(f.getName());
-                        f.delete();
-                    }
-                    dm.write(filelist.getKey() + ".termMap.master", master.getTmap());
-                });
+        private final int order;
+        private final PostingReader reader;
+        //partition key where the input ends, null for the end of the file
+        private final String until;
+        //null if the docIDs are kept
+        private final IntUnaryOperator docMap;
+
+        Run(int order, PostingReader reader, String until, IntUnaryOperator docMap) {
+            this.order = order;
+            this.reader = reader;
+            this.until = until;
+            this.docMap = docMap;
+        }
+
+        /**
+         * Advance to the next term of the range
+         * @return false if the input has no more terms in the range
+         * @throws IOException
+         */
+        boolean next() throws IOException {
+            return reader.next()
+                    && (until == null || PostingWriter.TERM_ORDER.compare(PartitionMergeScheduler.key(reader.getTerm()), until) < 0);
+        }
+
+        /**
+         * Append the postings of the current term, through the docID map
+         * @param postings
+         * @throws IOException
+         */
+        void readPostings(PostingList postings) throws IOException {
+            if (docMap == null) {
+                reader.readPostings(postings);
+                return;
+            }
+            PostingIterator it = reader.iterator();
+            for (int doc = it.nextDoc(); doc != PostingIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+                int mapped = docMap.applyAsInt(doc);
+                if (mapped >= 0) {
+                    postings.add(mapped, it.freq());
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            int c = PostingWriter.TERM_ORDER.compare(reader.getTerm(), o.reader.getTerm());
+            return c != 0 ? c : Integer.compare(order, o.order);
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                Logger.getLogger(Indexer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
     }
 
 }
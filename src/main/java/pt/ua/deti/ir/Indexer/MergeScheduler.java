@@ -0,0 +1,84 @@
+package pt.ua.deti.ir.Indexer;
+
+import pt.ua.deti.ir.Log;
+import pt.ua.deti.ir.Utils.Disk.DiskUtils;
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+import pt.ua.deti.ir.Utils.Disk.SegmentManifest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the merges chosen by a {@link TieredMergePolicy} on a background thread, so a new segment is searchable as
+ * soon as it is committed and merges never hold back indexing nor searching.
+ * Every merge is committed on its own: the manifest swaps the merged segments for the new one, and only then are
+ * the merged segment directories deleted. Searchers that still map them keep reading the deleted files.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class MergeScheduler {
+
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+    private final SegmentManifest manifest;
+    private final TieredMergePolicy policy;
+    private final SegmentMerger merger;
+    private final Runnable onCommit;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Merger"));
+
+    /**
+     * Initializes a MergeScheduler
+     * @param manifest manifest of the index directory
+     * @param policy
+     * @param onCommit called after every committed merge
+     */
+    public MergeScheduler(SegmentManifest manifest, TieredMergePolicy policy, Runnable onCommit) {
+        this.manifest = manifest;
+        this.policy = policy;
+        this.merger = new SegmentMerger(manifest);
+        this.onCommit = onCommit;
+    }
+
+    /**
+     * Merge in the background until the policy finds nothing to merge
+     */
+    public void maybeMerge() {
+        executor.execute(this::mergeAll);
+    }
+
+    /**
+     * Wait for the pending merges and stop the merge thread
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    private void mergeAll() {
+        List<SegmentInfo> merge;
+        while ((merge = policy.findMerge(manifest.getSegments())) != null) {
+            List<SegmentInfo> segments = new ArrayList<>(merge);
+            long start = System.currentTimeMillis();
+            try {
+                SegmentInfo merged = merger.merge(segments);
+                manifest.replace(segments, merged);
+                manifest.commit();
+                onCommit.run();
+                segments.forEach(s -> DiskUtils.deleteRecursively(manifest.directory(s.getName())));
+
+                LOGGER.log(Level.INFO, "Merged {0} segments into {1} in {2} ms",
+                        new Object[]{segments.size(), merged, System.currentTimeMillis() - start});
+            } catch (IOException ex) {
+                Logger.getLogger(MergeScheduler.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package pt.ua.deti.ir.Indexer;
+
+import pt.ua.deti.ir.Log;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.PostingReader;
+import pt.ua.deti.ir.Utils.Disk.PostingWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static pt.ua.deti.ir.Constants.MERGE_MEMORY_RATIO;
+import static pt.ua.deti.ir.Constants.MERGE_PARTITIONS_PER_THREAD;
+import static pt.ua.deti.ir.Constants.MERGE_PARTITION_MIN_BYTES;
+import static pt.ua.deti.ir.Constants.MERGE_THREADS;
+
+/**
+ * Runs a k-way merge as several concurrent merges of disjoint term ranges (partitions).
+ * A first pass reads the record headers of every input and groups its terms by partition key, the first
+ * {@link #KEY_LENGTH} characters in lower case, noting where every key starts in the input, how many bytes its
+ * postings take and its largest document frequency. Consecutive keys are packed into partitions of about the same
+ * size, every partition is merged into posting files of its own, and these are concatenated in term order.
+ * Partitions are started largest first, so the small ones fill the gaps at the end, and each one is admitted
+ * against a memory budget. A streaming merge holds the read buffers of its inputs, its write buffers and the
+ * decoded postings of a single term, so a partition is estimated from its inputs and the document frequencies of
+ * its keys. A partition bigger than the whole budget runs alone.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class PartitionMergeScheduler {
+
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+
+    static final int KEY_LENGTH = 2;
+
+    private static final String PART_EXTENSION = ".part";
+    // buffers of a PostingReader, and of a PostingWriter with its dictionary
+    private static final long READ_BUFFER_BYTES = 2 << 16;
+    private static final long WRITE_BUFFER_BYTES = 3 << 16;
+    // a decoded posting (docID and weight), twice for the growth of the list
+    private static final long POSTING_BYTES = 16;
+
+    private final int threads;
+    private final long memoryBudget;
+
+    /**
+     * Initializes a scheduler with {@link pt.ua.deti.ir.Constants#MERGE_THREADS} threads, and
+     * {@link pt.ua.deti.ir.Constants#MERGE_MEMORY_RATIO} of the heap as memory budget
+     */
+    public PartitionMergeScheduler() {
+        this(MERGE_THREADS, (long) (Runtime.getRuntime().maxMemory() * MERGE_MEMORY_RATIO));
+    }
+
+    /**
+     * Initializes a scheduler
+     * @param threads partitions merged concurrently, 1 merges the whole inputs at once
+     * @param memoryBudget bytes the partitions being merged may hold
+     */
+    public PartitionMergeScheduler(int threads, long memoryBudget) {
+        this.threads = Math.max(1, threads);
+        this.memoryBudget = Math.max(1 << 20, memoryBudget);
+    }
+
+    /**
+     * Merge posting files into a master term map and its term dictionary
+     * @param inputs posting files, in docID order
+     * @param docMaps docID map of every input, null to keep its docIDs
+     * @param norms norms of the merged documents, by their mapped docIDs
+     * @param postingsFile master term map to write
+     * @param dictionaryFile term dictionary to write
+     * @return number of terms written
+     * @throws IOException
+     */
+    public int merge(List<File> inputs, List<IntUnaryOperator> docMaps, DocNorms norms, File postingsFile, File dictionaryFile)
+            throws IOException {
+        if (threads == 1 || inputs.isEmpty()) {
+            return Indexer.merge(inputs, starts(inputs.size()), null, docMaps, norms, postingsFile, dictionaryFile);
+        }
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<File> parts = new ArrayList<>();
+        List<File> dictionaries = new ArrayList<>();
+        try {
+            TreeMap<String, Key> keys = scan(pool, inputs);
+            List<Partition> partitions = keys == null ? new ArrayList<>() : partition(keys, inputs.size());
+            if (partitions.size() < 2) {
+                return Indexer.merge(inputs, starts(inputs.size()), null, docMaps, norms, postingsFile, dictionaryFile);
+            }
+            for (int i = 0; i < partitions.size(); i++) {
+                parts.add(new File(postingsFile.getPath() + PART_EXTENSION + i));
+                dictionaries.add(new File(dictionaryFile.getPath() + PART_EXTENSION + i));
+            }
+
+            // largest first, every merge waits for its share of the budget
+            int permits = (int) Math.min(Integer.MAX_VALUE, memoryBudget >> 10);
+            Semaphore memory = new Semaphore(permits, true);
+            Integer[] order = new Integer[partitions.size()];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingLong((Integer i) -> partitions.get(i).bytes).reversed());
+
+            List<Future<Object>> merges = new ArrayList<>();
+            for (int i : order) {
+                Partition partition = partitions.get(i);
+                int need = (int) Math.max(1, Math.min(permits, partition.memory() >> 10));
+                merges.add(pool.submit(() ->
+                {
+                    memory.acquire(need);
+                    try {
+                        Indexer.merge(inputs, partition.starts, partition.until, docMaps, norms, parts.get(i), dictionaries.get(i));
+                    } finally {
+                        memory.release(need);
+                    }
+                    return null;
+                }));
+            }
+            await(merges);
+
+            int terms = PostingWriter.concat(parts, dictionaries, postingsFile, dictionaryFile);
+            LOGGER.log(Level.INFO, "Merged {0} terms in {1} partitions on {2} threads in {3} ms",
+                    new Object[]{terms, partitions.size(), threads, System.currentTimeMillis() - start});
+            return terms;
+        } finally {
+            pool.shutdownNow();
+            parts.forEach(File::delete);
+            dictionaries.forEach(File::delete);
+        }
+    }
+
+    /**
+     * Partition key of a term
+     * @param term
+     * @return
+     */
+    static String key(String term) {
+        return term.substring(0, Math.min(KEY_LENGTH, term.length())).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Read the record headers of every input, concurrently, and gather the keys of their terms
+     * @param pool
+     * @param inputs
+     * @return the keys in term order, or null if the keys of an input are not in term order
+     * @throws IOException
+     */
+    private static TreeMap<String, Key> scan(ExecutorService pool, List<File> inputs) throws IOException {
+        List<Future<Map<String, long[]>>> scans = new ArrayList<>();
+        for (File input : inputs) {
+            scans.add(pool.submit(() -> scan(input)));
+        }
+        List<Map<String, long[]>> scanned = await(scans);
+
+        TreeMap<String, Key> keys = new TreeMap<>(PostingWriter.TERM_ORDER);
+        for (int i = 0; i < scanned.size(); i++) {
+            if (scanned.get(i) == null) {
+                return null;
+            }
+            for (Map.Entry<String, long[]> e : scanned.get(i).entrySet()) {
+                Key key = keys.computeIfAbsent(e.getKey(), k -> new Key(inputs.size()));
+                key.starts[i] = e.getValue()[0];
+                key.bytes += e.getValue()[1];
+                key.postings += e.getValue()[2];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Keys of a single input: file offset where each one starts, bytes of its postings and largest document frequency
+     * @param input
+     * @return the keys in file order, or null if they are not in term order
+     * @throws IOException
+     */
+    private static Map<String, long[]> scan(File input) throws IOException {
+        Map<String, long[]> keys = new LinkedHashMap<>();
+        try (PostingReader reader = new PostingReader(input)) {
+            String previous = null;
+            long[] current = null;
+            while (reader.next()) {
+                String key = key(reader.getTerm());
+                if (!key.equals(previous)) {
+                    if (previous != null && PostingWriter.TERM_ORDER.compare(previous, key) > 0) {
+                        return null;
+                    }
+                    current = new long[]{reader.getOffset(), 0, 0};
+                    keys.put(key, current);
+                    previous = key;
+                }
+                current[1] += reader.getLength();
+                current[2] = Math.max(current[2], reader.getDocumentFrequency());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Pack consecutive keys into partitions of about the same number of bytes
+     * @param keys
+     * @param inputs number of inputs
+     * @return the partitions in term order
+     */
+    private List<Partition> partition(TreeMap<String, Key> keys, int inputs) {
+        long total = keys.values().stream().mapToLong(k -> k.bytes).sum();
+        long target = Math.max(MERGE_PARTITION_MIN_BYTES, total / ((long) threads * MERGE_PARTITIONS_PER_THREAD));
+
+        List<Partition> partitions = new ArrayList<>();
+        Partition current = null;
+        for (Map.Entry<String, Key> e : keys.entrySet()) {
+            if (current == null || current.bytes >= target) {
+                if (current != null) {
+                    current.until = e.getKey();
+                }
+                current = new Partition(inputs);
+                partitions.add(current);
+            }
+            current.add(e.getValue());
+        }
+        return partitions;
+    }
+
+    /**
+     * Offsets of the first record of every input
+     * @param inputs
+     * @return
+     */
+    private static long[] starts(int inputs) {
+        long[] starts = new long[inputs];
+        Arrays.fill(starts, PostingWriter.HEADER_SIZE);
+        return starts;
+    }
+
+    /**
+     * Wait for every task, rethrowing the first failure
+     * @param futures
+     * @return their results, in order
+     * @throws IOException
+     */
+    private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Merge interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * A partition key over every input
+     */
+    private static class Key {
+
+        //file offset where the key starts in every input, -1 if the input has none
+        private final long[] starts;
+        private long bytes;
+        //upper bound of the document frequency of its largest term
+        private long postings;
+
+        Key(int inputs) {
+            starts = new long[inputs];
+            Arrays.fill(starts, -1);
+        }
+    }
+
+    /**
+     * Consecutive keys merged together
+     */
+    private static class Partition {
+
+        //file offset of the first record of the partition in every input, -1 if the input has none
+        private final long[] starts;
+        //first key of the next partition, null for the last one
+        private String until;
+        private long bytes;
+        private long postings;
+
+        Partition(int inputs) {
+            starts = new long[inputs];
+            Arrays.fill(starts, -1);
+        }
+
+        void add(Key key) {
+            for (int i = 0; i < starts.length; i++) {
+                if (starts[i] < 0) {
+                    starts[i] = key.starts[i];
+                }
+            }
+            bytes += key.bytes;
+            postings = Math.max(postings, key.postings);
+        }
+
+        /**
+         * Estimated memory of the merge: buffers of the inputs and of the output, and the largest term decoded
+         * @return bytes
+         */
+        long memory() {
+            long inputs = Arrays.stream(starts).filter(s -> s >= 0).count();
+            return inputs * READ_BUFFER_BYTES + WRITE_BUFFER_BYTES + postings * POSTING_BYTES;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package pt.ua.deti.ir.Indexer;
+
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.DocStore;
+import pt.ua.deti.ir.Utils.Disk.DocStoreWriter;
+import pt.ua.deti.ir.Utils.Disk.LiveDocs;
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+import pt.ua.deti.ir.Utils.Disk.SegmentManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
+
+import static pt.ua.deti.ir.Constants.DICTIONARY_FILE;
+import static pt.ua.deti.ir.Constants.DOC_PATHS_FILE;
+import static pt.ua.deti.ir.Constants.DOC_STORE_FILE;
+import static pt.ua.deti.ir.Constants.NORMS_FILE;
+import static pt.ua.deti.ir.Constants.POSTINGS_FILE;
+
+/**
+ * Merges adjacent segments into a new segment: their master term maps are k-way merged like the runs of a single
+ * segment, and their document stores are concatenated. The docID ranges of adjacent segments follow each other,
+ * so postings are simply concatenated and keep their term frequencies, and the norms follow their documents.
+ * Deleted documents are purged: the live documents get consecutive docIDs from the first docID of the merged
+ * segments, so the new segment may end before the next segment starts (docIDs in between are never used).
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class SegmentMerger {
+
+    private final SegmentManifest manifest;
+
+    /**
+     * Initializes a SegmentMerger
+     * @param manifest manifest of the index directory, where the new segments are written
+     */
+    public SegmentMerger(SegmentManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Write the segment holding every document of the given segments. The manifest is left untouched
+     * @param segments adjacent segments, in docID order
+     * @return the new segment
+     * @throws IOException
+     */
+    public SegmentInfo merge(List<SegmentInfo> segments) throws IOException {
+        SegmentInfo first = segments.get(0);
+        String name = manifest.newSegmentName();
+        File dir = manifest.directory(name);
+        if (!dir.mkdirs()) {
+            throw new IOException("Could not create the segment directory " + dir.getPath());
+        }
+
+        // new docID of every document, in docID order
+        List<LiveDocs> live = new ArrayList<>(segments.size());
+        List<IntUnaryOperator> docMaps = new ArrayList<>(segments.size());
+        DocNorms norms = new DocNorms(first.getBase());
+        int next = first.getBase();
+        for (SegmentInfo segment : segments) {
+            File source = manifest.directory(segment.getName());
+            LiveDocs docs = LiveDocs.read(source, segment);
+            live.add(docs);
+            IntUnaryOperator docMap = docMap(segment, docs, next);
+            docMaps.add(docMap);
+            DocNorms segmentNorms = DocNorms.read(new File(source, NORMS_FILE), segment.getBase());
+            for (int doc = segment.getBase(); doc < segment.getBase() + segment.getDocumentCount(); doc++) {
+                int mapped = docMap == null ? doc : docMap.applyAsInt(doc);
+                if (mapped >= 0) {
+                    norms.set(mapped, segmentNorms.getLength(doc), segmentNorms.getNorm(doc));
+                }
+            }
+            next += segment.getLiveDocumentCount();
+        }
+        norms.write(new File(dir, NORMS_FILE));
+
+        int terms = Indexer.merge(
+                segments.stream().map(s -> new File(manifest.directory(s.getName()), POSTINGS_FILE)).collect(Collectors.toList()),
+                docMaps,
+                norms,
+                new File(dir, POSTINGS_FILE),
+                new File(dir, DICTIONARY_FILE));
+
+        DocStoreWriter store = new DocStoreWriter(new File(dir, DOC_STORE_FILE), new File(dir, DOC_PATHS_FILE));
+        for (int i = 0; i < segments.size(); i++) {
+            SegmentInfo segment = segments.get(i);
+            File source = manifest.directory(segment.getName());
+            DocStore docs = new DocStore(new File(source, DOC_STORE_FILE), new File(source, DOC_PATHS_FILE));
+            // a store may end before the segment when its last documents are unknown
+            for (int doc = 0; doc < segment.getDocumentCount(); doc++) {
+                if (live.get(i) == null || live.get(i).isLive(doc)) {
+                    store.add(docs.getId(doc), docs.getPath(doc));
+                }
+            }
+            store.flush();
+        }
+
+        return new SegmentInfo(name, first.getBase(), store.getDocumentCount(), terms, norms.getTotalLength());
+    }
+
+    /**
+     * DocID map of a merged segment
+     * @param segment
+     * @param live live documents of the segment, null if it has no deletions
+     * @param start new docID of its first live document
+     * @return the map, or null if the docIDs are kept
+     */
+    private static IntUnaryOperator docMap(SegmentInfo segment, LiveDocs live, int start) {
+        int base = segment.getBase();
+        if (live == null) {
+            return start == base ? null : doc -> doc - base + start;
+        }
+        int[] map = new int[segment.getDocumentCount()];
+        int next = start;
+        for (int doc = 0; doc < map.length; doc++) {
+            map[doc] = live.isLive(doc) ? next++ : -1;
+        }
+        return doc -> map[doc - base];
+    }
+}
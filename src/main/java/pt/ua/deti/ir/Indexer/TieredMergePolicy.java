@@ -0,0 +1,105 @@
+package pt.ua.deti.ir.Indexer;
+
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+
+import java.util.Collections;
+import java.util.List;
+
+import static pt.ua.deti.ir.Constants.MERGE_DELETES_RATIO;
+import static pt.ua.deti.ir.Constants.MERGE_FACTOR;
+import static pt.ua.deti.ir.Constants.MERGE_FLOOR_DOCUMENTS;
+
+/**
+ * Chooses the segments to merge. Segments are grouped in tiers by their size: tier 0 holds the segments of up to
+ * {@link pt.ua.deti.ir.Constants#MERGE_FLOOR_DOCUMENTS} documents, and every tier holds segments
+ * {@link pt.ua.deti.ir.Constants#MERGE_FACTOR} times bigger than the previous one.
+ * Whenever MERGE_FACTOR adjacent segments are in the same tier they are merged into one segment of the next tier,
+ * the smallest tier first, so every document is rewritten about once per tier (logarithmic write amplification)
+ * and the number of segments a query visits stays logarithmic in the corpus size.
+ * Only adjacent segments are merged, so every segment keeps a contiguous docID range.
+ * Tiers count the live documents only, and a segment where deleted documents reach
+ * {@link pt.ua.deti.ir.Constants#MERGE_DELETES_RATIO} of its docIDs is rewritten on its own when there is no other
+ * merge to do, so the postings a query visits stay close to the live documents.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class TieredMergePolicy {
+
+    private final int factor;
+    private final int floor;
+    private final double deletesRatio;
+
+    /**
+     * Initializes a policy with the default tiers
+     */
+    public TieredMergePolicy() {
+        this(MERGE_FACTOR, MERGE_FLOOR_DOCUMENTS, MERGE_DELETES_RATIO);
+    }
+
+    /**
+     * Initializes a policy
+     * @param factor number of segments merged at once, and size ratio between tiers
+     * @param floor documents of the biggest tier 0 segment
+     * @param deletesRatio share of deleted documents that gets a segment rewritten
+     */
+    public TieredMergePolicy(int factor, int floor, double deletesRatio) {
+        this.factor = Math.max(2, factor);
+        this.floor = Math.max(1, floor);
+        this.deletesRatio = deletesRatio;
+    }
+
+    /**
+     * Find the next merge
+     * @param segments live segments, in docID order
+     * @return the adjacent segments to merge, or null if there is nothing to merge
+     */
+    public List<SegmentInfo> findMerge(List<SegmentInfo> segments) {
+        int best = -1;
+        int bestTier = Integer.MAX_VALUE;
+        for (int i = 0; i + factor <= segments.size(); i++) {
+            int tier = tier(segments.get(i));
+            if (tier >= bestTier) {
+                continue;
+            }
+            int j = i + 1;
+            while (j < i + factor && tier(segments.get(j)) == tier) {
+                j++;
+            }
+            if (j == i + factor) {
+                best = i;
+                bestTier = tier;
+            }
+        }
+        if (best >= 0) {
+            return segments.subList(best, best + factor);
+        }
+
+        // no tier is full: purge the segment with the most deletions, if it has enough
+        SegmentInfo purge = null;
+        for (SegmentInfo segment : segments) {
+            if (segment.getDeletedCount() > 0 && deletedRatio(segment) >= deletesRatio
+                    && (purge == null || deletedRatio(segment) > deletedRatio(purge))) {
+                purge = segment;
+            }
+        }
+        return purge == null ? null : Collections.singletonList(purge);
+    }
+
+    private static double deletedRatio(SegmentInfo segment) {
+        return (double) segment.getDeletedCount() / segment.getDocumentCount();
+    }
+
+    /**
+     * Tier of a segment
+     * @param segment
+     * @return
+     */
+    int tier(SegmentInfo segment) {
+        int tier = 0;
+        for (long size = floor; segment.getLiveDocumentCount() > size; size *= factor) {
+            tier++;
+        }
+        return tier;
+    }
+}
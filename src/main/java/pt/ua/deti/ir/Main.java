@@ -2,9 +2,16 @@ package pt.ua.deti.ir;
 
 import org.apache.commons.cli.*;
 import pt.ua.deti.ir.Coordinator.Coordinator;
+import pt.ua.deti.ir.Ranker.Similarity;
+import pt.ua.deti.ir.Search.SearchBatch;
 import pt.ua.deti.ir.Search.SearchCLI;
+import pt.ua.deti.ir.Search.SearchServer;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Main class of IR engine
@@ -27,6 +34,19 @@ public class Main {
         options.addOption("f", true, "filter list");
         options.addOption("o", true, "output directory path");
         options.addOption("q", false, "query database for keywords (search)");
+        options.addOption("e", false, "exhaustive ranking, score every matching document (search)");
+        options.addOption("w", true, "pipeline workers: readers,tokenizers,indexers");
+        options.addOption("m", true, "RAM buffer of the indexing, in MB, flushed to a run when full");
+        options.addOption("b", true, "batch search: queries file, one \"qid<TAB>query\" or query per line");
+        options.addOption("r", true, "run file written by the batch search (run.txt)");
+        options.addOption("t", true, "run format of the batch search: trec or json (trec)");
+        options.addOption("k", true, "results per query of the batch search (" + Constants.BATCH_RESULTS + ")");
+        options.addOption("p", true, "concurrent queries of the batch search (available processors)");
+        options.addOption("l", true, "similarity of the search: tfidf (lnc.ltc) or bm25 (" + Constants.SIMILARITY + ")");
+        options.addOption("s", true, "serve searches over HTTP on the given port");
+        options.addOption("a", false, "append the corpus to the index as a new segment, instead of replacing it");
+        options.addOption("u", false, "update: append the corpus, deleting the indexed documents with the same Ids");
+        options.addOption("x", true, "delete the indexed documents whose Ids are listed in the file, one per line");
 
         // generate help
         HelpFormatter formatter = new HelpFormatter();
@@ -40,6 +60,19 @@ public class Main {
         String filterListPath = "./stop_processed.txt";
         String outputPath = "./disk";
         Boolean queryMode = false;
+        boolean exhaustive = false;
+        boolean append = false;
+        boolean update = false;
+        String deletesPath = null;
+        int[] workers = Constants.PIPELINE_WORKERS;
+        long ramBufferSize = Constants.RAM_BUFFER_SIZE;
+        String queriesPath = null;
+        String runPath = "./run.txt";
+        SearchBatch.Format format = SearchBatch.Format.TREC;
+        int resultsSize = Constants.BATCH_RESULTS;
+        int queryWorkers = Runtime.getRuntime().availableProcessors();
+        Similarity similarity = Similarity.forName(Constants.SIMILARITY);
+        int port = -1;
 
         try {
             cmd = cliParser.parse(options, args);
@@ -48,6 +81,18 @@ public class Main {
                     case "q":
                         queryMode = true;
                         break;
+                    case "e":
+                        exhaustive = true;
+                        break;
+                    case "a":
+                        append = true;
+                        break;
+                    case "u":
+                        update = true;
+                        break;
+                    case "x":
+                        deletesPath = o.getValue();
+                        break;
                     case "d":
                         directory = o.getValue();
                         break;
@@ -57,6 +102,38 @@ public class Main {
                     case "o":
                         outputPath = o.getValue();
                         break;
+                    case "w":
+                        workers = Arrays.stream(o.getValue().split(","))
+                                .mapToInt(w -> Math.max(1, Integer.parseInt(w.trim())))
+                                .toArray();
+                        if (workers.length != 3) {
+                            throw new ParseException("Expected readers,tokenizers,indexers");
+                        }
+                        break;
+                    case "m":
+                        ramBufferSize = Math.max(1, Long.parseLong(o.getValue().trim())) << 20;
+                        break;
+                    case "b":
+                        queriesPath = o.getValue();
+                        break;
+                    case "r":
+                        runPath = o.getValue();
+                        break;
+                    case "t":
+                        format = SearchBatch.Format.valueOf(o.getValue().trim().toUpperCase());
+                        break;
+                    case "k":
+                        resultsSize = Math.max(1, Integer.parseInt(o.getValue().trim()));
+                        break;
+                    case "p":
+                        queryWorkers = Math.max(1, Integer.parseInt(o.getValue().trim()));
+                        break;
+                    case "l":
+                        similarity = Similarity.forName(o.getValue());
+                        break;
+                    case "s":
+                        port = Integer.parseInt(o.getValue().trim());
+                        break;
                     case "help":
                         formatter.printHelp(" ", options);
                         return;
@@ -65,15 +142,28 @@ public class Main {
                         break;
                 }
             }
-        } catch (ParseException e) {
+        } catch (ParseException | IllegalArgumentException e) {
             System.out.println("Wrong arguments. Try -h");
             System.exit(0);
         }
 
         Log.init();
 
-        if (queryMode) {
-            SearchCLI search = new SearchCLI(outputPath, filterListPath);
+        if (port >= 0) {
+            try {
+                SearchServer server = new SearchServer(outputPath, filterListPath, exhaustive, similarity, port);
+                Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                server.start();
+            } catch (IOException ex) {
+                Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+            }
+
+        } else if (queriesPath != null) {
+            SearchBatch batch = new SearchBatch(outputPath, filterListPath, exhaustive, similarity);
+            batch.run(queriesPath, runPath, format, resultsSize, queryWorkers);
+
+        } else if (queryMode) {
+            SearchCLI search = new SearchCLI(outputPath, filterListPath, exhaustive, similarity);
             do {
                 System.out.print("Insert query (Control+c to exit): ");
                 Scanner sc = new Scanner(System.in);
@@ -94,9 +184,13 @@ public class Main {
 
             } while (true);
 
+        } else if (deletesPath != null) {
+            Coordinator cord = new Coordinator(directory, filterListPath, outputPath);
+            cord.initiateDelete(deletesPath);
+
         } else {
             // if we are processing data...
-            Coordinator cord = new Coordinator(directory, filterListPath, outputPath);
+            Coordinator cord = new Coordinator(directory, filterListPath, outputPath, workers, append, update, ramBufferSize);
             cord.initiateProcess();
         }
     }
@@ -0,0 +1,89 @@
+package pt.ua.deti.ir.Ranker;
+
+import pt.ua.deti.ir.Structures.CorpusStatistics;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+
+/**
+ * Okapi BM25: every query term adds idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / average length)), with
+ * idf = ln(1 + (N - df + 0.5) / (df + 0.5)), always positive, N counting the deleted documents still in the postings.
+ * The contribution grows with the term frequency and decreases with the document length, so the maximum term
+ * frequency and minimum document length the index stores for every posting list and block bound it, whatever
+ * k1, b and the average length.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class BM25Similarity extends Similarity {
+
+    private final double k1;
+    private final double b;
+
+    /**
+     * Initializes a BM25Similarity
+     * @param k1 term frequency saturation, 0 ignores the frequencies
+     * @param b document length normalization, from 0 (none) to 1 (full)
+     */
+    public BM25Similarity(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    @Override
+    public TermScorer[] scorers(int[] dfs, CorpusStatistics cs, DocNorms norms) {
+        // without the average length (an index of an older version) the lengths are not normalized
+        double averageLength = cs.getAverageDocumentLength();
+        double lengthNorm = averageLength > 0 ? k1 * b / averageLength : 0;
+        double constantNorm = averageLength > 0 ? k1 * (1 - b) : k1;
+
+        TermScorer[] scorers = new TermScorer[dfs.length];
+        for (int i = 0; i < dfs.length; i++) {
+            double idf = Math.log(1 + (cs.getMaxDoc() - dfs[i] + 0.5) / (dfs[i] + 0.5));
+            scorers[i] = new Scorer(idf * (k1 + 1), constantNorm, lengthNorm, norms);
+        }
+        return scorers;
+    }
+
+    @Override
+    public String toString() {
+        return "bm25 k1 " + k1 + " b " + b;
+    }
+
+    /**
+     * Score = idf * (k1 + 1) * tf / (tf + k1 * (1 - b) + k1 * b / average length * length)
+     */
+    private static final class Scorer extends TermScorer {
+
+        private final double weight;
+        private final double constantNorm;
+        private final double lengthNorm;
+        private final DocNorms norms;
+
+        Scorer(double weight, double constantNorm, double lengthNorm, DocNorms norms) {
+            this.weight = weight;
+            this.constantNorm = constantNorm;
+            this.lengthNorm = lengthNorm;
+            this.norms = norms;
+        }
+
+        @Override
+        public double score(int freq, int doc) {
+            return contribution(freq, norms.getLength(doc));
+        }
+
+        @Override
+        public double maxScore(PostingIterator it) {
+            return contribution(it.maxFreq(), it.minLength());
+        }
+
+        @Override
+        public double blockMaxScore(PostingIterator it) {
+            return contribution(it.blockMaxFreq(), it.blockMinLength());
+        }
+
+        private double contribution(double freq, int length) {
+            // no posting left in a block, whatever k1
+            return freq == 0 ? 0 : weight * freq / (freq + constantNorm + lengthNorm * length);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package pt.ua.deti.ir.Ranker;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top ranked documents of a query, best first, along with the number of documents that had to be fully scored
+ * (every document matching the query, for an exhaustive ranking). Immutable, so it can be shared by cached queries
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class RankedResults {
+
+    private final List<Map.Entry<Integer, Double>> results;
+    private final int scoredDocuments;
+
+    RankedResults(List<Map.Entry<Integer, Double>> results, int scoredDocuments) {
+        this.results = Collections.unmodifiableList(results);
+        this.scoredDocuments = scoredDocuments;
+    }
+
+    /**
+     * Getter - docID and score of the top documents, sorted by decreasing score and then by increasing docID
+     * @return
+     */
+    public List<Map.Entry<Integer, Double>> getResults() {
+        return results;
+    }
+
+    /**
+     * Getter - number of documents fully scored to find the top documents
+     * @return
+     */
+    public int getScoredDocuments() {
+        return scoredDocuments;
+    }
+}
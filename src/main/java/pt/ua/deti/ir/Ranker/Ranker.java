@@ -1,71 +1,256 @@
 package pt.ua.deti.ir.Ranker;
 
 import pt.ua.deti.ir.Structures.CorpusStatistics;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.LiveDocs;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
 
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
- * Ranks the query results by performing IDF normalization (note that LNC was pre-computed during indexation)
+ * Ranks the query results with a {@link Similarity}, lnc.ltc (TF-IDF) unless another one is given. The postings
+ * hold raw term frequencies, which the similarity scores along with the statistics of the documents, the
+ * {@link DocNorms} indexing stored apart, and of the corpus.
+ * Deleted documents are still in the postings until their segment is merged, they are skipped before scoring.
  *
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class Ranker {
 
+    // bounds are computed in a different order than the scores, keep them safely above any rounding error
+    private static final double BOUND_SLACK = 1 + 1e-9;
+
     private final CorpusStatistics cs;
+    //null if every document is live
+    private final LiveDocs liveDocs;
+    private final DocNorms norms;
+    private final Similarity similarity;
+
+    /**
+     * Initializes a Ranker based of the corpus statistics built on indexing time
+     * @param cs Corpus statistics
+     * @param norms norms of the documents of the whole index
+     */
+    public Ranker(CorpusStatistics cs, DocNorms norms) {
+        this(cs, null, norms);
+    }
+
+    /**
+     * Initializes a Ranker based of the corpus statistics built on indexing time
+     * @param cs Corpus statistics
+     * @param liveDocs live documents of the whole index, or null if no document is deleted
+     * @param norms norms of the documents of the whole index
+     */
+    public Ranker(CorpusStatistics cs, LiveDocs liveDocs, DocNorms norms) {
+        this(cs, liveDocs, norms, new TFIDFSimilarity());
+    }
 
     /**
      * Initializes a Ranker based of the corpus statistics built on indexing time
      * @param cs Corpus statistics
+     * @param liveDocs live documents of the whole index, or null if no document is deleted
+     * @param norms norms of the documents of the whole index
+     * @param similarity ranking model
      */
-    public Ranker(CorpusStatistics cs) {
+    public Ranker(CorpusStatistics cs, LiveDocs liveDocs, DocNorms norms, Similarity similarity) {
         this.cs = cs;
+        this.liveDocs = liveDocs;
+        this.norms = norms;
+        this.similarity = similarity;
     }
 
     /**
-     * Given a map containing the results of a query, rank the result based on their weight
-     * @param res Query results
+     * Given a map containing the results of a query, rank the result based on their term frequencies.
+     * Exhaustive: every posting of every term is scored
+     * @param res Query results, term -> docID -> term frequency
      * @return Query results ranked
      */
     public ConcurrentSkipListMap<Integer, Double> rankResults(ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>> res) {
-        ConcurrentHashMap<String, Double> idfs = new ConcurrentHashMap<>();
-
-        // calculate IDFs
-        res.entrySet()
-                .parallelStream()
-                .forEach((t) ->
-                        idfs.put(t.getKey(), Math.log10((double) cs.getCorpusCount() / t.getValue().size())));
-
-        /*
-         * calculate IDF normalization
-         * Normalization = √( ∑ idf(tokens)² )
-         */
-        double normalization = Math.sqrt(idfs.reduceEntriesToDouble(0, v -> Math.pow(v.getValue(), 2), 0, Double::sum));
-
-        ConcurrentSkipListMap<Integer, Double> scores = new ConcurrentSkipListMap<>();
-
-        res.entrySet()
-                .forEach((entry) -> // entry is token:(docid:lnc)
-                        entry.getValue()
-                                .entrySet()
-                                .parallelStream()
-                                .forEach((t) -> // docid:lnc
-                                {
-                                    /*
-                                      Score for a given document is: Score = ∑ (for
-                                      each token) = lnc * idf(token) /
-                                      normalization
-                                     */
-                                    Double lnc = res.get(entry.getKey()).get(t.getKey());
-                                    Double idf = idfs.get(entry.getKey());
-
-                                    scores.putIfAbsent(t.getKey(), 0.0);
-                                    scores.compute(t.getKey(), (k, v) -> Double.sum(v, (lnc * idf) / normalization));
-                                }));
-
-        return scores;
+        // terms in a fixed order, so every scoring path adds the contributions of a document in the same order
+        TreeMap<String, ConcurrentHashMap<Integer, Double>> terms = new TreeMap<>(res);
+        Similarity.TermScorer[] scorers = similarity.scorers(
+                terms.values().stream().mapToInt(ConcurrentHashMap::size).toArray(), cs, norms);
+
+        ScoreAccumulator scores = new ScoreAccumulator(cs.getMaxDoc());
+        int t = 0;
+        for (ConcurrentHashMap<Integer, Double> postings : terms.values()) {
+            Similarity.TermScorer scorer = scorers[t++];
+            postings.forEach((doc, tf) ->
+            {
+                if (isLive(doc)) {
+                    scores.add(doc, scorer.score(tf.intValue(), doc));
+                }
+            });
+        }
+
+        ConcurrentSkipListMap<Integer, Double> ranked = new ConcurrentSkipListMap<>();
+        scores.forEach(ranked::put);
+        return ranked;
+    }
+
+    /**
+     * Rank the k best documents, exhaustively: term at a time, every posting of every term is added to its document
+     * accumulator, and a bounded heap selects the best accumulators.
+     * Same scores and order as sorting {@link #rankResults} and keeping the first k (ties go to the smallest docID)
+     * @param postings term -> its postings, consumed by the ranking
+     * @param k number of documents to retrieve
+     * @return the top documents, along with the number of documents matching the query
+     */
+    public RankedResults rankExhaustive(Map<String, PostingIterator> postings, int k) {
+        TreeMap<String, PostingIterator> terms = new TreeMap<>(postings);
+        Similarity.TermScorer[] scorers = similarity.scorers(
+                terms.values().stream().mapToInt(PostingIterator::size).toArray(), cs, norms);
+
+        ScoreAccumulator scores = new ScoreAccumulator(cs.getMaxDoc());
+        int t = 0;
+        for (PostingIterator it : terms.values()) {
+            Similarity.TermScorer scorer = scorers[t++];
+            for (int doc = it.nextDoc(); doc != PostingIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+                if (isLive(doc)) {
+                    scores.add(doc, scorer.score(it.freq(), doc));
+                }
+            }
+        }
 
+        TopK top = new TopK(k);
+        scores.forEach(top::offer);
+        return new RankedResults(top.results(), scores.size());
     }
 
+    /**
+     * Rank the k best documents with dynamic pruning (block-max WAND).
+     * Every term has an upper bound on its contribution, from the impact of its posting list, and so does every
+     * block of postings. Documents are visited in docID order and only the ones whose upper bounds can beat
+     * the current k-th score are scored, whole blocks are skipped without being decoded.
+     * Scores are summed in the same term order as {@link #rankResults}, so the result is identical to sorting the
+     * exhaustive ranking and keeping the first k (ties go to the smallest docID).
+     * @param postings term -> its postings, consumed by the ranking
+     * @param k number of documents to retrieve
+     * @return
+     */
+    public RankedResults rankTopK(Map<String, PostingIterator> postings, int k) {
+        TreeMap<String, PostingIterator> sorted = new TreeMap<>(postings);
+        int n = sorted.size();
+        PostingIterator[] its = sorted.values().toArray(new PostingIterator[n]);
+
+        int[] dfs = new int[n];
+        for (int i = 0; i < n; i++) {
+            dfs[i] = its[i].size();
+        }
+        Similarity.TermScorer[] scorers = similarity.scorers(dfs, cs, norms);
+
+        // contribution upper bounds, with a little slack for the rounding of the bound sums
+        double[] bounds = new double[n];
+        for (int i = 0; i < n; i++) {
+            bounds[i] = scorers[i].maxScore(its[i]) * BOUND_SLACK;
+        }
+
+        TopK top = new TopK(k);
+        int scored = 0;
+
+        // terms sorted by their current docID
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            its[i].nextDoc();
+        }
+
+        while (k > 0) {
+            sortByDoc(order, its);
+            double threshold = top.threshold();
+
+            // pivot: first term where the bounds of the terms up to it may beat the threshold
+            double acc = 0;
+            int pivot = -1;
+            for (int p = 0; p < n && its[order[p]].docID() != PostingIterator.NO_MORE_DOCS; p++) {
+                acc += bounds[order[p]];
+                if (acc > threshold) {
+                    pivot = p;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotDoc = its[order[pivot]].docID();
+            int last = pivot;
+            while (last + 1 < n && its[order[last + 1]].docID() == pivotDoc) {
+                last++;
+            }
+
+            // a deleted pivot document is never scored, nor any document before it
+            if (!isLive(pivotDoc)) {
+                for (int p = 0; p <= last; p++) {
+                    its[order[p]].advance(pivotDoc + 1);
+                }
+                continue;
+            }
+
+            // block-max check: bounds of the blocks holding the pivot document
+            double blockBound = 0;
+            long next = last + 1 < n ? its[order[last + 1]].docID() : PostingIterator.NO_MORE_DOCS;
+            for (int p = 0; p <= last; p++) {
+                PostingIterator it = its[order[p]];
+                it.shallowAdvance(pivotDoc);
+                blockBound += scorers[order[p]].blockMaxScore(it) * BOUND_SLACK;
+                next = Math.min(next, it.blockLastDoc() + 1L);
+            }
+            if (blockBound <= threshold) {
+                int target = (int) Math.min(next, PostingIterator.NO_MORE_DOCS);
+                for (int p = 0; p <= last; p++) {
+                    its[order[p]].advance(target);
+                }
+                continue;
+            }
+
+            if (its[order[0]].docID() == pivotDoc) {
+                // every term up to the pivot is on the document: score it
+                double score = 0.0;
+                for (int i = 0; i < n; i++) {
+                    if (its[i].docID() == pivotDoc) {
+                        score = Double.sum(score, scorers[i].score(its[i].freq(), pivotDoc));
+                    }
+                }
+                scored++;
+                top.offer(pivotDoc, score);
+                for (int p = 0; p <= last; p++) {
+                    its[order[p]].nextDoc();
+                }
+            } else {
+                // documents before the pivot document cannot make it
+                for (int p = 0; p < pivot; p++) {
+                    its[order[p]].advance(pivotDoc);
+                }
+            }
+        }
+
+        return new RankedResults(top.results(), scored);
+    }
+
+    /**
+     * Stable insertion sort of term indexes by the current docID of their iterators.
+     * Queries have a handful of terms and only the few advanced ones move, so the order is nearly sorted already
+     * @param order
+     * @param its
+     */
+    private static void sortByDoc(int[] order, PostingIterator[] its) {
+        for (int i = 1; i < order.length; i++) {
+            int term = order[i];
+            int doc = its[term].docID();
+            int j = i - 1;
+            while (j >= 0 && its[order[j]].docID() > doc) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = term;
+        }
+    }
+
+    private boolean isLive(int doc) {
+        return liveDocs == null || liveDocs.isLive(doc);
+    }
 }
@@ -0,0 +1,102 @@
+package pt.ua.deti.ir.Ranker;
+
+/**
+ * Term-at-a-time score accumulators indexed by docID.
+ * Scores live in pages of {@link #PAGE_SIZE} documents, allocated the first time one of their documents is scored,
+ * so a query only pays for the docID ranges its postings touch. A bitmap per page marks the scored documents,
+ * a document whose contributions add up to zero is still a result.
+ * Not thread-safe, every query uses its own accumulator.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+class ScoreAccumulator {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private double[][] scores;
+    private long[][] scored;
+    private int count;
+
+    /**
+     * Create an empty accumulator
+     * @param documents expected number of documents, docIDs above it are still accepted
+     */
+    ScoreAccumulator(int documents) {
+        int pages = Math.max(1, (documents + PAGE_SIZE - 1) >>> PAGE_BITS);
+        scores = new double[pages][];
+        scored = new long[pages][];
+    }
+
+    /**
+     * Add the contribution of a term to the score of a document
+     * @param doc
+     * @param contribution
+     */
+    void add(int doc, double contribution) {
+        int page = doc >>> PAGE_BITS;
+        if (page >= scores.length) {
+            grow(page + 1);
+        }
+        if (scores[page] == null) {
+            scores[page] = new double[PAGE_SIZE];
+            scored[page] = new long[PAGE_SIZE / Long.SIZE];
+        }
+
+        int i = doc & PAGE_MASK;
+        long bit = 1L << i;
+        if ((scored[page][i >>> 6] & bit) == 0) {
+            scored[page][i >>> 6] |= bit;
+            count++;
+        }
+        scores[page][i] = Double.sum(scores[page][i], contribution);
+    }
+
+    /**
+     * Getter - number of scored documents
+     * @return
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Visit every scored document, in docID order
+     * @param consumer
+     */
+    void forEach(DocScoreConsumer consumer) {
+        for (int page = 0; page < scored.length; page++) {
+            long[] bits = scored[page];
+            if (bits == null) {
+                continue;
+            }
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                    consumer.accept((page << PAGE_BITS) + i, scores[page][i]);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    private void grow(int pages) {
+        int length = Math.max(pages, scores.length * 2);
+        double[][] s = new double[length][];
+        long[][] b = new long[length][];
+        System.arraycopy(scores, 0, s, 0, scores.length);
+        System.arraycopy(scored, 0, b, 0, scored.length);
+        scores = s;
+        scored = b;
+    }
+
+    /**
+     * Receiver of docID, score pairs
+     */
+    interface DocScoreConsumer {
+        void accept(int doc, double score);
+    }
+}
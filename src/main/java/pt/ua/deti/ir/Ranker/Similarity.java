@@ -0,0 +1,75 @@
+package pt.ua.deti.ir.Ranker;
+
+import pt.ua.deti.ir.Constants;
+import pt.ua.deti.ir.Structures.CorpusStatistics;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+
+/**
+ * Ranking model of the {@link Ranker}: how the postings of the query terms turn into document scores.
+ * A score is the sum of the contributions of the query terms found in the document, each one computed out of the
+ * raw term frequency of the posting, the statistics of its document ({@link DocNorms}) and of the corpus
+ * ({@link CorpusStatistics}). None of them is baked into the postings, so models can be switched without
+ * reindexing. Every model must also bound the contribution of a term from the impacts of its posting lists and
+ * blocks, so the top-k ranking can skip postings.
+ * Implementations are immutable and shared by concurrent queries.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public abstract class Similarity {
+
+    /**
+     * Scorers of the terms of a query, which may share a query normalization
+     * @param dfs document frequency of every term of the query
+     * @param cs statistics of the corpus
+     * @param norms length and norm of every document
+     * @return a scorer per term, in the order of the document frequencies
+     */
+    public abstract TermScorer[] scorers(int[] dfs, CorpusStatistics cs, DocNorms norms);
+
+    /**
+     * Find a ranking model by name
+     * @param name tfidf (lnc.ltc) or bm25
+     * @return
+     * @throws IllegalArgumentException if there is no such model
+     */
+    public static Similarity forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "tfidf":
+                return new TFIDFSimilarity();
+            case "bm25":
+                return new BM25Similarity(Constants.BM25_K1, Constants.BM25_B);
+            default:
+                throw new IllegalArgumentException("Unknown similarity: " + name);
+        }
+    }
+
+    /**
+     * Contribution of a query term to the scores of the documents. Not thread-safe, every query gets its own
+     */
+    public abstract static class TermScorer {
+
+        /**
+         * Contribution of the term to the score of a document
+         * @param freq term frequency in the document
+         * @param doc docID
+         * @return
+         */
+        public abstract double score(int freq, int doc);
+
+        /**
+         * Upper bound of the contribution of the term to any document of its posting list
+         * @param it postings of the term
+         * @return
+         */
+        public abstract double maxScore(PostingIterator it);
+
+        /**
+         * Upper bound of the contribution of the term to any document of the current block of its postings
+         * @param it postings of the term
+         * @return
+         */
+        public abstract double blockMaxScore(PostingIterator it);
+    }
+}
@@ -0,0 +1,90 @@
+package pt.ua.deti.ir.Ranker;
+
+import pt.ua.deti.ir.Structures.CorpusStatistics;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+
+/**
+ * Cosine similarity of lnc.ltc vectors: documents are weighted by (1 + log tf) / norm (LNC), query terms by their
+ * IDF, normalized over the query. The document weights are bounded by the maximum weights the index stores for
+ * every posting list and block.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class TFIDFSimilarity extends Similarity {
+
+    @Override
+    public TermScorer[] scorers(int[] dfs, CorpusStatistics cs, DocNorms norms) {
+        double[] idfs = new double[dfs.length];
+        for (int i = 0; i < dfs.length; i++) {
+            idfs[i] = idf(cs.getMaxDoc(), dfs[i]);
+        }
+        double normalization = normalization(idfs);
+
+        TermScorer[] scorers = new TermScorer[dfs.length];
+        for (int i = 0; i < dfs.length; i++) {
+            scorers[i] = new Scorer(idfs[i], normalization, norms);
+        }
+        return scorers;
+    }
+
+    /**
+     * IDF of a term, never negative: the document frequency counts the deleted documents, and so does n
+     * @param n number of documents in the postings
+     * @param df document frequency
+     * @return
+     */
+    private static double idf(int n, int df) {
+        return Math.log10((double) n / df);
+    }
+
+    /**
+     * IDF normalization = sqrt( sum idf(tokens)^2 ), summed in the given order
+     * @param idfs
+     * @return
+     */
+    private static double normalization(double[] idfs) {
+        double sum = 0;
+        for (double idf : idfs) {
+            sum += Math.pow(idf, 2);
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Override
+    public String toString() {
+        return "tfidf";
+    }
+
+    /**
+     * Score = lnc * idf(token) / normalization
+     */
+    private static final class Scorer extends TermScorer {
+
+        private final double idf;
+        private final double normalization;
+        private final DocNorms norms;
+
+        Scorer(double idf, double normalization, DocNorms norms) {
+            this.idf = idf;
+            this.normalization = normalization;
+            this.norms = norms;
+        }
+
+        @Override
+        public double score(int freq, int doc) {
+            return (DocNorms.weight(freq, norms.getNorm(doc)) * idf) / normalization;
+        }
+
+        @Override
+        public double maxScore(PostingIterator it) {
+            return it.maxWeight() * (idf / normalization);
+        }
+
+        @Override
+        public double blockMaxScore(PostingIterator it) {
+            return it.blockMaxWeight() * (idf / normalization);
+        }
+    }
+}
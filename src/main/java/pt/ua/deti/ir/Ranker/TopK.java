@@ -0,0 +1,126 @@
+package pt.ua.deti.ir.Ranker;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded selection of the k best documents: a binary min-heap over primitive arrays with the worst of the
+ * kept documents on top. A document is better than another if its score is bigger or, on equal scores,
+ * if its docID is smaller.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+class TopK {
+
+    private final int k;
+    private final int[] docs;
+    private final double[] scores;
+    private int size;
+
+    /**
+     * Create an empty selection
+     * @param k number of documents to keep
+     */
+    TopK(int k) {
+        this.k = Math.max(k, 0);
+        docs = new int[this.k];
+        scores = new double[this.k];
+    }
+
+    /**
+     * Offer a document, kept only if it is better than the worst of the k kept so far
+     * @param doc
+     * @param score
+     */
+    void offer(int doc, double score) {
+        if (size < k) {
+            docs[size] = doc;
+            scores[size] = score;
+            up(size++);
+        } else if (k > 0 && worse(docs[0], scores[0], doc, score)) {
+            docs[0] = doc;
+            scores[0] = score;
+            down(0);
+        }
+    }
+
+    /**
+     * Score a document has to beat to be kept, or -1 while less than k documents are kept
+     * @return
+     */
+    double threshold() {
+        return size < k ? -1 : scores[0];
+    }
+
+    /**
+     * Getter - the kept documents and their scores, best first
+     * @return
+     */
+    List<Map.Entry<Integer, Double>> results() {
+        int[] d = docs.clone();
+        double[] s = scores.clone();
+        int n = size;
+
+        // heap sort: pop the worst to the end of the arrays
+        List<Map.Entry<Integer, Double>> results = new ArrayList<>(n);
+        for (int end = n - 1; end >= 0; end--) {
+            swap(d, s, 0, end);
+            down(d, s, 0, end);
+        }
+        for (int i = 0; i < n; i++) {
+            results.add(new AbstractMap.SimpleImmutableEntry<>(d[i], s[i]));
+        }
+        return results;
+    }
+
+    private static boolean worse(int doc, double score, int otherDoc, double otherScore) {
+        int c = Double.compare(score, otherScore);
+        return c < 0 || (c == 0 && doc > otherDoc);
+    }
+
+    private void up(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(docs[i], scores[i], docs[parent], scores[parent])) {
+                break;
+            }
+            swap(docs, scores, i, parent);
+            i = parent;
+        }
+    }
+
+    private void down(int i) {
+        down(docs, scores, i, size);
+    }
+
+    private static void down(int[] docs, double[] scores, int i, int size) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && worse(docs[left], scores[left], docs[worst], scores[worst])) {
+                worst = left;
+            }
+            if (right < size && worse(docs[right], scores[right], docs[worst], scores[worst])) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(docs, scores, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(int[] docs, double[] scores, int i, int j) {
+        int d = docs[i];
+        docs[i] = docs[j];
+        docs[j] = d;
+        double s = scores[i];
+        scores[i] = scores[j];
+        scores[j] = s;
+    }
+}
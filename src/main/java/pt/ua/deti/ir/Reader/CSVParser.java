@@ -1,210 +1,289 @@
 package pt.ua.deti.ir.Reader;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
 import pt.ua.deti.ir.Log;
-import pt.ua.deti.ir.Utils.Mem.MemMgr;
+import pt.ua.deti.ir.Structures.Document;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
-import java.util.StringJoiner;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.BooleanSupplier;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static pt.ua.deti.ir.Constants.CSV_SPLIT_SIZE;
+
 /**
  * The purpose of the CSVParser is to parse csv files.
- * It implements Runnable so it can be instantiated as Thread object.
- * It also contains garbage collector calls to force a sligthly better house keeping.
- * 
+ * It implements Runnable so it can be instantiated as Thread object, the first stage of the pipeline.
+ * Records become typed {@link Document}s, without docID, handed over in batches through a bounded queue, so the
+ * parser blocks (backpressure) whenever the next stages fall behind. An empty batch marks the end of the stream.
+ * Files are read through a {@link MappedCSVReader}, which only decodes the columns kept in the documents, and the
+ * bodies are decoded straight into shared char blocks, so a document body is never a String of its own.
+ * With several threads, files bigger than the split size are cut by a {@link CSVSplitter} into ranges of whole
+ * records, parsed concurrently by a pool into a bounded queue per range. The batches are still handed over in file
+ * and record order, whatever the number of threads, so the docIDs assigned to them downstream are deterministic.
+ *
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class CSVParser implements Runnable {
 
     private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+
+    //Id,OwnerUserId,CreationDate,ClosedDate,Score,Title,Body
+    //Id,OwnerUserId,CreationDate,ParentId,  Score,     ,Body
+    private static final String[] COLUMNS = {"Id", "CreationDate", "Score", "Body"};
+    private static final int ID = 0;
+    private static final int CREATION_DATE = 1;
+    private static final int SCORE = 2;
+    private static final int BODY = 3;
+    // chars of a body block, shared by the documents decoded into it
+    private static final int BLOCK_SIZE = 1 << 18;
+    // batches a range parser gets ahead of the range being handed over
+    private static final int RANGE_QUEUE_CAPACITY = 4;
+
     private final Queue<String> fileQueue;
-    private final MemMgr mgr;
-    private final Lock lock = new ReentrantLock();
-    private final Condition parseMore = lock.newCondition();
-    private final Condition parsingdone = lock.newCondition();
-    private final Condition firstRunWait = lock.newCondition();
-    private Iterator<CSVRecord> iterator;
-    private String currentFilepath;
-    private ConcurrentLinkedQueue<String> csvStrings;
-    private boolean everythingParsed = false;
-    private boolean everythingPooled = false;
-    private boolean firstParse;
-    private int targetNrDocuments;
-    private int i;
+    private final BlockingQueue<List<Document>> output;
+    private final int batchSize;
+    private final List<String> sources;
+    private final int threads;
+    private final long splitSize;
+
+    /**
+     * Initializes a single threaded CSVParser
+     * @param queue A CSV filepaths queue
+     * @param output queue where to put the batches of documents
+     * @param batchSize number of documents per batch
+     * @param sources paths of the corpus files, every file opened is added and the documents hold its ordinal
+     */
+    public CSVParser(Queue<String> queue, BlockingQueue<List<Document>> output, int batchSize, List<String> sources) {
+        this(queue, output, batchSize, sources, 1);
+    }
+
+    /**
+     * Initializes a CSVParser
+     * @param queue A CSV filepaths queue
+     * @param output queue where to put the batches of documents
+     * @param batchSize number of documents per batch
+     * @param sources paths of the corpus files, every file opened is added and the documents hold its ordinal
+     * @param threads number of parsing threads
+     */
+    public CSVParser(Queue<String> queue, BlockingQueue<List<Document>> output, int batchSize, List<String> sources, int threads) {
+        this(queue, output, batchSize, sources, threads, CSV_SPLIT_SIZE);
+    }
 
     /**
      * Initializes a CSVParser
      * @param queue A CSV filepaths queue
-     * @param mgr an instance of the MemMgr
+     * @param output queue where to put the batches of documents
+     * @param batchSize number of documents per batch
+     * @param sources paths of the corpus files, every file opened is added and the documents hold its ordinal
+     * @param threads number of parsing threads
+     * @param splitSize bytes of a range parsed by a single thread
      */
-    public CSVParser(ConcurrentLinkedQueue<String> queue, MemMgr mgr) {
-        this.firstParse = true;
+    public CSVParser(Queue<String> queue, BlockingQueue<List<Document>> output, int batchSize, List<String> sources,
+                     int threads, long splitSize) {
         fileQueue = queue;
-        this.mgr = mgr;
-        initializeReaders();
-        csvStrings = new ConcurrentLinkedQueue<>();
-        targetNrDocuments = 50000;
+        this.output = output;
+        this.batchSize = batchSize;
+        this.sources = sources;
+        this.threads = threads;
+        this.splitSize = splitSize;
     }
 
     @Override
     public void run() {
-
-        StringJoiner sj;
-
-        while (!everythingParsed)
-            try {
-                lock.lock();
-
-                LOGGER.finest("Reading from file...");
-
-                for (i = 0; ((BooleanSupplier) () ->
-                {
-                    // 0.3 overflows with -Xmx4g
-                    return firstParse ? mgr.getUsedMem() < mgr.getMaxMem() * 0.20 : i < targetNrDocuments && !everythingParsed;
-
-                }).getAsBoolean(); i++) {
-                    if (!iterator.hasNext()) {
-                        // no more records to process in this file. is there more?
-                        if (!fileQueue.isEmpty()) {
-                            initializeReaders();
-                        } else {
-                            everythingParsed = true;
-                            break;
-                        }
-                    }
-
-                    CSVRecord record = iterator.next();
-
-                    sj = new StringJoiner(",");
-                    try {
-
-                        //Id,OwnerUserId,CreationDate,ClosedDate,Score,Title,Body
-                        //Id,OwnerUserId,CreationDate,ParentId,  Score,     ,Body
-                        sj.add("Id:" + record.get("Id"));
-                        sj.add("CreationDate:" + record.get("CreationDate"));
-                        sj.add("Score:" + record.get("Score"));
-                        sj.add("FilePath:" + currentFilepath);
-                        sj.add("Body:" + record.get("Body").replace("\n", "").replace("\r", ""));
-                    } catch (IllegalArgumentException ex) {
-                        Logger.getLogger(CSVParser.class.getName()).log(Level.INFO, "Skipping out of format file: {0}", currentFilepath);
-                        if (!fileQueue.isEmpty()) {
-                            initializeReaders();
-                        } else {
-                            everythingParsed = true;
-                            break;
-                        }
-                    }
-
-                    csvStrings.add(sj.toString());
-                } // end of for loop
-                Runtime.getRuntime().gc();
-                Runtime.getRuntime().runFinalization();
-
-                if (firstParse) {
-                    firstParse = false;
-                    firstRunWait.signal();
-                    targetNrDocuments = i;
-                    LOGGER.log(Level.FINEST, "Every loop will process {0} lines", i);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            List<Range> ranges = ranges(pool);
+            if (pool == null) {
+                for (Range range : ranges) {
+                    range.parse(output);
                 }
-
-                try {
-                    LOGGER.finest("Queued more CSV documents. parseMore.await()");
-                    parseMore.await();
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(CSVParser.class.getName()).log(Level.SEVERE, null, ex);
+            } else {
+                for (Range range : ranges) {
+                    pool.execute(range);
+                }
+                // hand the batches over in range order
+                for (Range range : ranges) {
+                    List<Document> batch;
+                    while (!(batch = range.batches.take()).isEmpty()) {
+                        output.put(batch);
+                    }
                 }
-
-            } finally {
-                lock.unlock();
-            }
-
-        LOGGER.log(Level.FINEST, "Parsed all files, all lines");
-
-        lock.lock();
-        try {
-            try {
-                LOGGER.log(Level.FINEST, "Waiting for kill.");
-                parsingdone.await();
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.FINEST, "Killed");
             }
+            LOGGER.log(Level.FINEST, "Parsed all files, all lines");
+            output.put(Collections.emptyList());
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.FINEST, "Killed");
+            Thread.currentThread().interrupt();
         } finally {
-            lock.unlock();
+            if (pool != null) {
+                pool.shutdownNow();
+            }
         }
-
     }
 
     /**
-     * Try to poll a list of csv strings
-     * @return
+     * Open every CSV file of the queue and split it into ranges
+     * @param pool where the files are split, null to read every file as a single range
+     * @return the ranges of every file, in file order
+     * @throws InterruptedException
      */
-    public ConcurrentLinkedQueue<String> poll() {
+    private List<Range> ranges(ExecutorService pool) throws InterruptedException {
+        List<Range> ranges = new ArrayList<>();
+        String filepath;
+        while ((filepath = fileQueue.poll()) != null) {
+            File file = new File(filepath);
+            long[] bounds;
+            try (MappedCSVReader header = new MappedCSVReader(file, COLUMNS)) {
+                bounds = pool == null
+                        ? new long[]{header.getPosition(), Long.MAX_VALUE}
+                        : CSVSplitter.split(file, header.getPosition(), splitSize, pool);
+            } catch (IOException ex) {
+                Logger.getLogger(CSVParser.class.getName()).log(Level.INFO, "Skipping out of format file: {0}", filepath);
+                continue;
+            }
+            int source;
+            synchronized (sources) {
+                source = sources.size();
+                sources.add(filepath);
+            }
+            for (int r = 0; r + 1 < bounds.length; r++) {
+                ranges.add(new Range(filepath, source, bounds[r], bounds[r + 1]));
+            }
+            if (bounds.length > 2) {
+                LOGGER.log(Level.FINE, "Split {0} into {1} ranges", new Object[]{filepath, bounds.length - 1});
+            }
+        }
+        return ranges;
+    }
 
-        ConcurrentLinkedQueue<String> aux;
+    /**
+     * Records of a byte range of a CSV file, parsed into batches of documents
+     */
+    private class Range implements Runnable {
+
+        private final String filepath;
+        private final int source;
+        private final long start;
+        private final long end;
+        // batches parsed by the pool, an empty one marks the end of the range
+        private final BlockingQueue<List<Document>> batches = new ArrayBlockingQueue<>(RANGE_QUEUE_CAPACITY);
+        private MappedCSVReader reader;
+        private char[] block;
+        private int blockUsed;
+
+        private Range(String filepath, int source, long start, long end) {
+            this.filepath = filepath;
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
 
-        lock.lock();
-        try {
+        @Override
+        public void run() {
             try {
-                if (firstParse) {
-                    firstRunWait.await();
+                try {
+                    parse(batches);
+                } catch (RuntimeException ex) {
+                    // the range still ends, or the batches of the next ones would never be handed over
+                    Logger.getLogger(CSVParser.class.getName()).log(Level.SEVERE, null, ex);
                 }
+                batches.put(Collections.emptyList());
             } catch (InterruptedException ex) {
-                System.out.println("Signal sem await?");
-                Logger.getLogger(CSVParser.class.getName()).log(Level.SEVERE, null, ex);
+                Thread.currentThread().interrupt();
             }
+        }
 
-            aux = csvStrings;
-            csvStrings = new ConcurrentLinkedQueue<>();
-
-            if (everythingParsed) {
-                everythingPooled = true;
+        /**
+         * Parse the records of the range
+         * @param output queue where to put the batches of documents
+         * @throws InterruptedException
+         */
+        private void parse(BlockingQueue<List<Document>> output) throws InterruptedException {
+            List<Document> batch = new ArrayList<>(batchSize);
+            try {
+                reader = new MappedCSVReader(new File(filepath), start, end, COLUMNS);
+                while (nextRecord()) {
+                    Document doc = document();
+                    if (doc == null) {
+                        continue;
+                    }
+                    batch.add(doc);
+                    if (batch.size() == batchSize) {
+                        output.put(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(CSVParser.class.getName()).log(Level.INFO, "Skipping out of format file: {0}", filepath);
+            } finally {
+                closeReader();
             }
+            if (!batch.isEmpty()) {
+                output.put(batch);
+            }
+        }
 
-            parseMore.signal();
-
-        } finally {
-            lock.unlock();
+        /**
+         * Advance to the next record of the range
+         * @return false at the end of the range, or of its well-formed records
+         */
+        private boolean nextRecord() {
+            try {
+                return reader.next();
+            } catch (IOException ex) {
+                Logger.getLogger(CSVParser.class.getName()).log(Level.INFO, "Skipping out of format file: {0} from byte {1}",
+                        new Object[]{filepath, reader.getPosition()});
+                return false;
+            }
         }
 
-        return aux;
+        /**
+         * Document of the current record, its body decoded into the current block
+         * @return the document, or null if the record has no numeric Id or Score
+         */
+        private Document document() {
+            int id;
+            int score;
+            try {
+                id = reader.getInt(ID);
+                score = reader.getInt(SCORE);
+            } catch (NumberFormatException ex) {
+                LOGGER.log(Level.FINE, "Skipping record of {0}: {1}", new Object[]{filepath, ex.getMessage()});
+                return null;
+            }
 
-    }
+            int length = reader.length(BODY);
+            if (block == null || block.length - blockUsed < length) {
+                block = new char[Math.max(BLOCK_SIZE, length)];
+                blockUsed = 0;
+            }
+            int offset = blockUsed;
+            blockUsed += reader.decode(BODY, false, block, offset);
+            return new Document(id, reader.get(CREATION_DATE), score, source, block, offset, blockUsed);
+        }
 
-    /**
-     * Retrieves the flag that indicates if every csv strings were polled 
-     * @return
-     */
-    public synchronized boolean isEmpty() {
-        return everythingPooled;
-    }
-    
-    /**
-     * Initialize the CSV readers
-     */
-    private void initializeReaders() {
-        try {
-            currentFilepath = fileQueue.poll();
-            FileReader fr = new FileReader(currentFilepath);
-            BufferedReader br = new BufferedReader(fr);
-            Iterable<CSVRecord> records = CSVFormat.RFC4180.withFirstRecordAsHeader().parse(br);
-            iterator = records.iterator();
-
-        } catch (IOException ex) {
-            Logger.getLogger(CSVParser.class.getName()).log(Level.SEVERE, null, ex);
+        /**
+         * Close the reader of the range, if any
+         */
+        private void closeReader() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(CSVParser.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                reader = null;
+                block = null;
+            }
         }
     }
-
 }
@@ -0,0 +1,161 @@
+package pt.ua.deti.ir.Reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a CSV file into byte ranges that start and end at record boundaries, to be parsed concurrently.
+ * A line break only ends a record outside quotes, and a quoted field holds an even number of quotes once its
+ * doubled quotes are counted, so whether an offset is inside quotes only depends on the parity of the quotes
+ * before it. The file is cut in chunks of the split size whose quotes are counted concurrently, the parity at the
+ * start of every chunk is the running parity of the chunks before it, and every cut is then moved forward
+ * (resynchronized) past the first line break outside quotes.
+ * The ranges are exact for RFC4180 files. A stray quote inside an unquoted field throws the parity off, so the
+ * cuts after it may land inside a record, which is then parsed as malformed.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+final class CSVSplitter {
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    // bytes mapped at a time while looking for the line break after a cut
+    private static final int RESYNC_WINDOW = 1 << 16;
+
+    private CSVSplitter() {
+    }
+
+    /**
+     * Split the records of a file into ranges of about the split size
+     * @param file
+     * @param start file offset of the first record, after the header
+     * @param splitSize bytes per range
+     * @param pool where the quotes of the chunks are counted
+     * @return file offsets where the ranges start, followed by the file size
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static long[] split(File file, long start, long splitSize, ExecutorService pool) throws IOException, InterruptedException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int chunks = (int) Math.max(1, (size - start) / splitSize);
+            if (chunks < 2) {
+                return new long[]{start, size};
+            }
+
+            // the quotes of the last chunk never matter
+            List<Future<Boolean>> parities = new ArrayList<>(chunks - 1);
+            for (int c = 0; c < chunks - 1; c++) {
+                long from = start + c * splitSize;
+                parities.add(pool.submit(() -> oddQuotes(channel, from, from + splitSize)));
+            }
+
+            long[] bounds = new long[chunks + 1];
+            int count = 0;
+            bounds[count++] = start;
+            boolean quoted = false;
+            for (int c = 1; c < chunks; c++) {
+                quoted ^= get(parities.get(c - 1));
+                long bound = resync(channel, start + c * splitSize, quoted, size);
+                // a record longer than a chunk swallows the next cuts
+                if (bound > bounds[count - 1] && bound < size) {
+                    bounds[count++] = bound;
+                }
+            }
+            bounds[count++] = size;
+            return Arrays.copyOf(bounds, count);
+        }
+    }
+
+    /**
+     * Check the parity of the quotes in a byte range
+     * @param channel
+     * @param from
+     * @param to
+     * @return true if the range holds an odd number of quotes
+     * @throws IOException
+     */
+    private static boolean oddQuotes(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int quotes = 0;
+        for (int i = 0, n = buffer.limit(); i < n; i++) {
+            if (buffer.get(i) == QUOTE) {
+                quotes++;
+            }
+        }
+        return (quotes & 1) == 1;
+    }
+
+    /**
+     * Find the first record that starts after a cut
+     * @param channel
+     * @param cut file offset of the cut
+     * @param quoted whether the cut is inside quotes
+     * @param size file size
+     * @return file offset of the record, or the file size if there is none
+     * @throws IOException
+     */
+    private static long resync(FileChannel channel, long cut, boolean quoted, long size) throws IOException {
+        long offset = cut;
+        while (offset < size) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(RESYNC_WINDOW, size - offset));
+            for (int i = 0, n = buffer.limit(); i < n; i++) {
+                byte b = buffer.get(i);
+                if (b == QUOTE) {
+                    quoted = !quoted;
+                } else if (!quoted && (b == LF || b == CR)) {
+                    long next = offset + i + 1;
+                    if (b == CR && next < size && (i + 1 < n ? buffer.get(i + 1) : read(channel, next)) == LF) {
+                        next++;
+                    }
+                    return next;
+                }
+            }
+            offset += buffer.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Read a single byte
+     * @param channel
+     * @param offset
+     * @return
+     * @throws IOException
+     */
+    private static byte read(FileChannel channel, long offset) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1);
+        channel.read(b, offset);
+        return b.get(0);
+    }
+
+    /**
+     * Wait for a quote count
+     * @param parity
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static boolean get(Future<Boolean> parity) throws IOException, InterruptedException {
+        try {
+            return parity.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+}
@@ -4,88 +4,159 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import pt.ua.deti.ir.Structures.Document;
 import pt.ua.deti.ir.Utils.Disk.DiskManager;
+import pt.ua.deti.ir.Utils.Disk.DocStoreWriter;
 
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import static pt.ua.deti.ir.Constants.CORPUS_REGEX_DOCUMENT;
+import static pt.ua.deti.ir.Constants.DOC_PATHS_FILE;
+import static pt.ua.deti.ir.Constants.DOC_STORE_FILE;
 
 /**
- * The purpose of Corpus Reader is to create the initial document structure
- * associated to a file. 1. Parsing the document striping unnecessary
- * tags/symbols/letters 2. Fill the Document structure with data 3. Return the
- * Document
+ * The purpose of Corpus Reader is to number the documents read by the {@link CSVParser}: it assigns their docIDs
+ * and keeps the original Id and corpus file of every docID until they are saved to the document store.
  *
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class CorpusReader {
 
-    private final AtomicInteger corpusCount = new AtomicInteger(0);
+    // heap usage of a docID in the map: hash node and table slot, Integer key, pair and Integer Id, the path is shared
+    private static final long DOC_ENTRY_BYTES = 32 + 8 + 16 + 24 + 16;
+
+    private final int firstDocID;
+    private final AtomicInteger corpusCount;
     private final DiskManager dm;
-    private ConcurrentHashMap<Integer, Pair<String, Integer>> corpusIDToPath = new ConcurrentHashMap<>();
+    // parsing workers share the read lock, a detach takes the write lock so every detached map covers a contiguous ID range
+    private final ReadWriteLock saveLock = new ReentrantReadWriteLock(true);
+    private final List<String> sources = new CopyOnWriteArrayList<>();
+    private volatile ConcurrentHashMap<Integer, Pair<String, Integer>> corpusIDToPath = new ConcurrentHashMap<>();
+    private final AtomicLong bufferedBytes = new AtomicLong(0);
+    // first docID after the range of a detached map -> the map
+    private final Queue<Pair<Integer, ConcurrentHashMap<Integer, Pair<String, Integer>>>> detached = new ConcurrentLinkedQueue<>();
+    private DocStoreWriter store;
 
+    /**
+     * Initializes a CorpusReader whose docIDs start at 0
+     * @param dirname directory of the document store
+     */
     public CorpusReader(String dirname) {
+        this(dirname, 0);
+    }
+
+    /**
+     * Initializes a CorpusReader
+     * @param dirname directory of the document store
+     * @param firstDocID docID of the first document read, the store only holds the docIDs from it on
+     */
+    public CorpusReader(String dirname, int firstDocID) {
         dm = new DiskManager(dirname);
+        this.firstDocID = firstDocID;
+        this.corpusCount = new AtomicInteger(firstDocID);
     }
 
     /**
-     * Parses all document present in the referenced file path
+     * Assigns docIDs to a batch of documents read by the {@link CSVParser}, in batch order.
+     * Safe to call from several threads, each call runs sequentially on the caller thread.
      *
-     * @param stringsQueue to parse
-     * @return list with all documents with it's content in untokenized/unstemmed raw keywords
+     * @param doclist to number
+     * @return the same documents, with their raw, untokenized body
      */
-    public List<Document> parse(ConcurrentLinkedQueue<String> stringsQueue) {
-
-        //compile our corpus regex so we can apply it on our parsing process
-        Pattern id_content = Pattern.compile(CORPUS_REGEX_DOCUMENT);
-
-        //parsing process
-        return stringsQueue.parallelStream()
-                .filter(line -> !line.isEmpty()) // line is not empty
-                .map(id_content::matcher)// regex it
-                .filter(Matcher::find) // did we regex anything? if so create document
-                .map(match ->
-                {
-                    //get the corpusID for this new file that we processing
-                    int corpusID = corpusCount.getAndIncrement();
-
-                    //map the corpusID to its corresponding filepath
-                    corpusIDToPath.computeIfAbsent(corpusID, v -> new ImmutablePair<>(match.group(4), Integer.parseInt(match.group(1))));
-                    return new Document(
-                            corpusID, //first match is doc id and used to create our own doc id
-                            Arrays.asList(match.group(5).split(" ")).parallelStream() // split document content in words
-                                    .collect(Collectors.toList())); // and put them in a list
-                })
-                .collect(Collectors.toList()); //collect all parsed lines
+    public List<Document> parse(List<Document> doclist) {
+        saveLock.readLock().lock();
+        try {
+            int corpusID = corpusCount.getAndAdd(doclist.size());
+            for (Document doc : doclist) {
+                doc.setDocID(corpusID);
+                //map the corpusID to its original Id and corpus file
+                corpusIDToPath.put(corpusID, new ImmutablePair<>(sources.get(doc.getSource()), doc.getId()));
+                corpusID++;
+            }
+            bufferedBytes.addAndGet(DOC_ENTRY_BYTES * doclist.size());
+        } finally {
+            saveLock.readLock().unlock();
+        }
+        return doclist;
     }
-    
+
     /**
-     * Getter for the corpusCount - counts the number of corpus read
+     * Getter - paths of the corpus files, indexed by the source ordinal of the documents
      * @return
      */
+    public List<String> getSources() {
+        return sources;
+    }
+
+    /**
+     * Getter for the corpusCount - counts the number of corpus read, plus the first docID
+     * @return the next docID
+     */
     public int getCorpusCount() {
         return corpusCount.get();
     }
 
-    public synchronized void save() {
-        if (corpusIDToPath.isEmpty()) {
-            return;
-        }
+    /**
+     * Getter - heap usage of the docIDs read since the last detach, in bytes
+     * @return
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
 
-        String fileName = corpusCount.get() + ".docMap";
+    /**
+     * Detach the docIDs read so far, they wait in memory for the next {@link #save()}
+     */
+    public void detach() {
+        saveLock.writeLock().lock();
+        try {
+            if (!corpusIDToPath.isEmpty()) {
+                detached.add(new ImmutablePair<>(corpusCount.get(), corpusIDToPath));
+                corpusIDToPath = new ConcurrentHashMap<>();
+                bufferedBytes.set(0);
+            }
+        } finally {
+            saveLock.writeLock().unlock();
+        }
+    }
 
-        dm.write(fileName, corpusIDToPath);
+    /**
+     * Getter - docID of the first document read
+     * @return
+     */
+    public int getFirstDocID() {
+        return firstDocID;
+    }
 
-        corpusIDToPath = new ConcurrentHashMap<>();
+    /**
+     * Appends the detached docIDs to the document store, the first save replaces any previous store
+     */
+    public synchronized void save() {
+        try {
+            if (store == null) {
+                store = new DocStoreWriter(new File(dm.dirname + "/" + DOC_STORE_FILE), new File(dm.dirname + "/" + DOC_PATHS_FILE));
+            }
 
-        Runtime.getRuntime().gc();
-        Runtime.getRuntime().runFinalization();
+            Pair<Integer, ConcurrentHashMap<Integer, Pair<String, Integer>>> docMap;
+            while ((docMap = detached.poll()) != null) {
+                for (int docID = firstDocID + store.getDocumentCount(); docID < docMap.getLeft(); docID++) {
+                    Pair<String, Integer> doc = docMap.getRight().get(docID);
+                    store.add(doc == null ? -1 : doc.getRight(), doc == null ? null : doc.getLeft());
+                }
+            }
+            store.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(CorpusReader.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 }
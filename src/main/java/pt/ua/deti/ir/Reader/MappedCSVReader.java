@@ -0,0 +1,405 @@
+package pt.ua.deti.ir.Reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * RFC4180 reader over a memory-mapped UTF-8 CSV file whose first record is the header.
+ * Records are scanned byte by byte straight from the mapping, only noting where the fields of the requested
+ * columns start and end, so the columns nobody asked for never become Strings. A requested field is only decoded
+ * when {@link #get}, {@link #getInt} or {@link #decode} is called. Quoted fields may hold commas, line breaks and doubled quotes, records end at a
+ * line break (LF, CRLF or CR) outside quotes, and empty lines are skipped.
+ * Files are mapped in windows of up to {@link #WINDOW_SIZE} bytes, moved forward whenever a record crosses the end
+ * of the current one, so a single record must fit in a window.
+ * A reader may be limited to a byte range of the file, the records starting in it, so several readers can parse
+ * the ranges of a {@link CSVSplitter} concurrently.
+ * Not thread-safe.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class MappedCSVReader implements Closeable {
+
+    static final int WINDOW_SIZE = 1 << 30;
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long fileSize;
+    // file offset where the last record of the range ends
+    private final long rangeEnd;
+    // file offset of the current window, and of the next record relative to it
+    private long windowStart;
+    private ByteBuffer window;
+    private int position;
+
+    // requested column of every field of a record, -1 for the ignored ones
+    private final int[] slots;
+    // last field holding a requested column
+    private int lastField = -1;
+    // byte range and escaped quotes of each requested field of the current record
+    private final int[] starts;
+    private final int[] ends;
+    private final boolean[] escaped;
+    private int fields;
+    private byte[] scratch = new byte[1 << 12];
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Map a CSV file and read its header
+     * @param file
+     * @param columns names of the columns to read, in the order they are requested by {@link #get}
+     * @throws IOException if the file can not be read or its header lacks a column
+     */
+    public MappedCSVReader(File file, String... columns) throws IOException {
+        this(file, 0, Long.MAX_VALUE, columns);
+    }
+
+    /**
+     * Map a byte range of a CSV file, after reading its header
+     * @param file
+     * @param start file offset of the first record of the range, the records right after the header if it is before them
+     * @param end file offset where the last record of the range ends
+     * @param columns names of the columns to read, in the order they are requested by {@link #get}
+     * @throws IOException if the file can not be read or its header lacks a column
+     */
+    public MappedCSVReader(File file, long start, long end, String... columns) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        fileSize = channel.size();
+        rangeEnd = Math.min(end, fileSize);
+        starts = new int[columns.length];
+        ends = new int[columns.length];
+        escaped = new boolean[columns.length];
+        try {
+            map(0);
+            String[] header = header();
+            slots = new int[header.length];
+            Arrays.fill(slots, -1);
+            for (int c = 0; c < columns.length; c++) {
+                int field = Arrays.asList(header).indexOf(columns[c]);
+                if (field < 0) {
+                    throw new IOException("No column " + columns[c] + " in " + file.getPath());
+                }
+                slots[field] = c;
+                lastField = Math.max(lastField, field);
+            }
+            if (start > getPosition() && start < fileSize) {
+                map(start);
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Advance to the next record
+     * @return false at the end of the file, or of the range
+     * @throws IOException if the record lacks one of the requested columns
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (windowStart + position >= rangeEnd) {
+                return false;
+            }
+            int end = scan(position);
+            if (end < 0) {
+                // the record crosses the end of the window
+                if (position == 0) {
+                    throw new IOException("Record at byte " + windowStart + " is bigger than " + WINDOW_SIZE + " bytes");
+                }
+                map(windowStart + position);
+                continue;
+            }
+            int record = position;
+            position = end;
+            byte first = window.get(record);
+            if (first == LF || first == CR) {
+                continue;
+            }
+            if (fields <= lastField) {
+                throw new IOException("Record at byte " + (windowStart + record) + " has " + fields + " fields");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Value of a requested column of the current record
+     * @param column index of the column in the constructor arguments
+     * @return
+     */
+    public String get(int column) {
+        return get(column, true);
+    }
+
+    /**
+     * Value of a requested column of the current record
+     * @param column index of the column in the constructor arguments
+     * @param lineBreaks false to drop the CR and LF bytes of the value
+     * @return
+     */
+    public String get(int column, boolean lineBreaks) {
+        int n = copy(column, lineBreaks);
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Value of a requested column of the current record, as a decimal int
+     * @param column index of the column in the constructor arguments
+     * @return
+     * @throws NumberFormatException if the value is not an int
+     */
+    public int getInt(int column) {
+        int i = starts[column];
+        int end = ends[column];
+        boolean negative = i < end && window.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            throw new NumberFormatException("Not an int: " + get(column));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an int: " + get(column));
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value != (int) value) {
+            throw new NumberFormatException("Not an int: " + get(column));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Getter - encoded length of a requested column of the current record, the most chars it decodes to
+     * @param column index of the column in the constructor arguments
+     * @return bytes
+     */
+    public int length(int column) {
+        return ends[column] - starts[column];
+    }
+
+    /**
+     * Decode a requested column of the current record into a char array, without creating a String
+     * @param column index of the column in the constructor arguments
+     * @param lineBreaks false to drop the CR and LF bytes of the value
+     * @param dst array with at least {@link #length} chars free from the offset on
+     * @param offset
+     * @return number of chars written
+     */
+    public int decode(int column, boolean lineBreaks, char[] dst, int offset) {
+        int n = copy(column, lineBreaks);
+        CharBuffer out = CharBuffer.wrap(dst, offset, dst.length - offset);
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(scratch, 0, n), out, true);
+        decoder.flush(out);
+        return out.position() - offset;
+    }
+
+    /**
+     * Getter - file offset of the next record
+     * @return
+     */
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        raf.close();
+    }
+
+    /**
+     * Copy a requested field of the current record to the scratch array, unescaping its quotes
+     * @param column
+     * @param lineBreaks false to drop the CR and LF bytes
+     * @return number of bytes copied
+     */
+    private int copy(int column, boolean lineBreaks) {
+        int start = starts[column];
+        int length = ends[column] - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        ByteBuffer view = window.duplicate();
+        view.position(start);
+        view.get(scratch, 0, length);
+        if (lineBreaks && !escaped[column]) {
+            return length;
+        }
+
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = scratch[i];
+            if (b == QUOTE && escaped[column]) {
+                // doubled quote, keep one
+                i++;
+            } else if (!lineBreaks && (b == LF || b == CR)) {
+                continue;
+            }
+            scratch[n++] = b;
+        }
+        return n;
+    }
+
+    /**
+     * Scan a record, noting the range of its requested fields
+     * @param from offset of the record in the window
+     * @return offset of the next record in the window, or -1 if the window ends first (and the file does not)
+     */
+    private int scan(int from) {
+        ByteBuffer w = window;
+        int limit = w.limit();
+        boolean last = windowStart + limit >= fileSize;
+        int i = from;
+        fields = 0;
+        while (true) {
+            int slot = fields < slots.length ? slots[fields] : -1;
+            int start;
+            int end;
+            boolean quotes = false;
+            if (i < limit && w.get(i) == QUOTE) {
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (!last) {
+                            return -1;
+                        }
+                        // unterminated quote, the field runs to the end of the file
+                        end = i;
+                        break;
+                    }
+                    if (w.get(i) == QUOTE) {
+                        if (i + 1 < limit && w.get(i + 1) == QUOTE) {
+                            quotes = true;
+                            i += 2;
+                            continue;
+                        }
+                        if (i + 1 >= limit && !last) {
+                            return -1;
+                        }
+                        end = i++;
+                        break;
+                    }
+                    i++;
+                }
+                // anything between the closing quote and the delimiter is kept out of the field
+                while (i < limit && w.get(i) != COMMA && w.get(i) != LF && w.get(i) != CR) {
+                    i++;
+                }
+            } else {
+                start = i;
+                while (i < limit) {
+                    byte b = w.get(i);
+                    if (b == COMMA || b == LF || b == CR) {
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+            }
+            if (i >= limit && !last) {
+                return -1;
+            }
+
+            if (slot >= 0) {
+                starts[slot] = start;
+                ends[slot] = end;
+                escaped[slot] = quotes;
+            }
+            fields++;
+
+            if (i >= limit) {
+                return i;
+            }
+            byte b = w.get(i++);
+            if (b == COMMA) {
+                continue;
+            }
+            if (b == CR && i < limit && w.get(i) == LF) {
+                i++;
+            } else if (b == CR && i >= limit && !last) {
+                return -1;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Read the header record
+     * @return the column names
+     */
+    private String[] header() {
+        int[] bounds = new int[16];
+        int count = 0;
+        int i = 0;
+        int limit = window.limit();
+        bounds[count++] = 0;
+        while (i < limit && window.get(i) != LF && window.get(i) != CR) {
+            if (window.get(i) == COMMA) {
+                if (count + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[count++] = i;
+                bounds[count++] = i + 1;
+            }
+            i++;
+        }
+        bounds[count++] = i;
+        if (i < limit && window.get(i) == CR) {
+            i++;
+        }
+        if (i < limit && window.get(i) == LF) {
+            i++;
+        }
+        position = i;
+
+        String[] header = new String[count / 2];
+        for (int f = 0; f < header.length; f++) {
+            byte[] name = new byte[bounds[2 * f + 1] - bounds[2 * f]];
+            ByteBuffer view = window.duplicate();
+            view.position(bounds[2 * f]);
+            view.get(name);
+            header[f] = new String(name, StandardCharsets.UTF_8).replace("\"", "").trim();
+        }
+        // a byte order mark is not part of the first name
+        if (header.length > 0 && header[0].startsWith("\uFEFF")) {
+            header[0] = header[0].substring(1);
+        }
+        return header;
+    }
+
+    /**
+     * Map a window of the file
+     * @param offset file offset where the window starts
+     * @throws IOException
+     */
+    private void map(long offset) throws IOException {
+        long size = Math.min(WINDOW_SIZE, fileSize - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+        position = 0;
+    }
+}
@@ -0,0 +1,172 @@
+package pt.ua.deti.ir.Search;
+
+import pt.ua.deti.ir.Ranker.RankedResults;
+import pt.ua.deti.ir.Utils.Mem.WeightedCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of ranked query results, bounded by their estimated size in bytes (see {@link WeightedCache}).
+ * A query is identified by its set of stemmed terms, in term order, and the number of results asked for, so
+ * queries that only differ in word order, repeated words, stop words or inflections share an entry.
+ * Entries belong to an index generation, the whole cache is dropped as soon as a lookup comes from a newer one.
+ * Hit and miss latencies cover the lookup and, on a miss, the ranking.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class QueryCache {
+
+    // estimated bytes of a cached query besides its results, and of each result
+    private static final long QUERY_BYTES = 256;
+    private static final long RESULT_BYTES = 64;
+
+    private final WeightedCache<Key, RankedResults> entries;
+    private long generation;
+
+    private final LongAdder hitNanos = new LongAdder();
+    private final LongAdder missNanos = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Create an empty cache
+     * @param capacity memory budget, in bytes
+     */
+    QueryCache(long capacity) {
+        entries = new WeightedCache<>(capacity, results -> QUERY_BYTES + RESULT_BYTES * results.getResults().size());
+    }
+
+    /**
+     * Ranked results of a query, ranked and cached if they are not in the cache
+     * @param terms stemmed query terms
+     * @param k number of results
+     * @param exhaustive if the ranking scores every matching document
+     * @param generation index generation the results are ranked on
+     * @param ranking ranks the query on a miss
+     * @return
+     */
+    RankedResults get(Collection<String> terms, int k, boolean exhaustive, long generation, Supplier<RankedResults> ranking) {
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (generation > this.generation) {
+                if (entries.size() > 0) {
+                    invalidations.increment();
+                }
+                entries.invalidateAll();
+                this.generation = generation;
+            }
+        }
+
+        // the generation is part of the key, so results ranked on an older index can never be served
+        boolean[] missed = {false};
+        RankedResults results = entries.get(new Key(terms, k, exhaustive, generation), key ->
+        {
+            // ranked outside the cache lock, concurrent misses of the same query just rank it twice
+            missed[0] = true;
+            return ranking.get();
+        });
+
+        (missed[0] ? missNanos : hitNanos).add(System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * Getter - number of cached queries
+     * @return
+     */
+    int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return entries.getHits();
+    }
+
+    public long getMisses() {
+        return entries.getMisses();
+    }
+
+    /**
+     * Getter - number of times the cache was dropped for a newer index generation
+     * @return
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Getter - fraction of the lookups answered by the cache
+     * @return
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : h / (double) total;
+    }
+
+    /**
+     * Getter - average latency of a hit, in milliseconds
+     * @return
+     */
+    public double getHitLatency() {
+        long h = getHits();
+        return h == 0 ? 0 : hitNanos.sum() / 1e6 / h;
+    }
+
+    /**
+     * Getter - average latency of a miss, ranking included, in milliseconds
+     * @return
+     */
+    public double getMissLatency() {
+        long m = getMisses();
+        return m == 0 ? 0 : missNanos.sum() / 1e6 / m;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits %d, misses %d (%.1f%% hit rate), %.3f ms per hit, %.3f ms per miss, invalidations %d",
+                getHits(), getMisses(), getHitRate() * 100, getHitLatency(), getMissLatency(), getInvalidations());
+    }
+
+    /**
+     * Normalized query: distinct terms in term order, number of results, ranking mode and index generation
+     */
+    private static class Key {
+
+        private final List<String> terms;
+        private final int k;
+        private final boolean exhaustive;
+        private final long generation;
+        private final int hash;
+
+        Key(Collection<String> terms, int k, boolean exhaustive, long generation) {
+            this.terms = new ArrayList<>(new TreeSet<>(terms));
+            this.k = k;
+            this.exhaustive = exhaustive;
+            this.generation = generation;
+            this.hash = 31 * (31 * (31 * this.terms.hashCode() + k) + Boolean.hashCode(exhaustive)) + Long.hashCode(generation);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return k == other.k && exhaustive == other.exhaustive && generation == other.generation && terms.equals(other.terms);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package pt.ua.deti.ir.Search;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import pt.ua.deti.ir.Log;
+import pt.ua.deti.ir.Ranker.Similarity;
+import pt.ua.deti.ir.Ranker.TFIDFSimilarity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Batch querying: reads a queries file, runs the queries on a pool of workers sharing a single {@link SearchEngine}
+ * and writes a machine-readable run, followed by the throughput and latency percentiles of the batch.
+ * The queries file has one query per line, either "qid&lt;TAB&gt;query" or just the query (its qid is then the line
+ * number); blank lines are skipped. The run keeps the order of the queries file, whatever the number of workers.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class SearchBatch {
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+
+    private static final String RUN_TAG = "IR-2016_17";
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+
+    /**
+     * Output format of a run
+     */
+    public enum Format {
+        /** "qid Q0 docno rank score tag" lines, as read by trec_eval */
+        TREC,
+        /** one JSON object per query */
+        JSON
+    }
+
+    private final SearchEngine engine;
+    private final boolean exhaustive;
+    private final Gson gson = new Gson();
+
+    /**
+     * Initializes a SearchBatch
+     * @param outputPath the path where the indexer output is
+     * @param filterListPath filter list filepath used for filtering queries
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     */
+    public SearchBatch(String outputPath, String filterListPath, boolean exhaustive) {
+        this(outputPath, filterListPath, exhaustive, new TFIDFSimilarity());
+    }
+
+    /**
+     * Initializes a SearchBatch
+     * @param outputPath the path where the indexer output is
+     * @param filterListPath filter list filepath used for filtering queries
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     * @param similarity ranking model of the queries
+     */
+    public SearchBatch(String outputPath, String filterListPath, boolean exhaustive, Similarity similarity) {
+        this.engine = new SearchEngine(outputPath, filterListPath, similarity);
+        this.exhaustive = exhaustive;
+    }
+
+    /**
+     * Run every query of a queries file and print the batch statistics
+     * @param queriesPath queries file
+     * @param runPath run file to write
+     * @param format run format
+     * @param resultsSize the amount of results to retrieve per query
+     * @param workers number of queries executed concurrently
+     */
+    public void run(String queriesPath, String runPath, Format format, int resultsSize, int workers) {
+        List<Query> queries;
+        try {
+            queries = readQueries(queriesPath);
+        } catch (IOException ex) {
+            Logger.getLogger(SearchBatch.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        engine.refresh();
+        LOGGER.log(Level.INFO, "Running {0} queries on {1} workers", new Object[]{queries.size(), workers});
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long[] latencies = new long[queries.size()];
+        long start = System.nanoTime();
+
+        try (Writer out = Files.newBufferedWriter(Paths.get(runPath), StandardCharsets.UTF_8)) {
+            List<Future<Result>> futures = new ArrayList<>(queries.size());
+            queries.forEach(query -> futures.add(pool.submit(() -> search(query, resultsSize))));
+
+            // written in the queries order, while the later queries are still running
+            for (int i = 0; i < futures.size(); i++) {
+                Result result = futures.get(i).get();
+                latencies[i] = result.latency;
+                write(out, format, result);
+            }
+        } catch (IOException | ExecutionException ex) {
+            Logger.getLogger(SearchBatch.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println(statistics(latencies, elapsed, workers));
+    }
+
+    /**
+     * Tokenize and rank a single query
+     * @param query
+     * @param resultsSize
+     * @return
+     */
+    private Result search(Query query, int resultsSize) {
+        long start = System.nanoTime();
+        List<String> terms = engine.splitQuery(query.text)
+                .stream()
+                .map(ImmutablePair::getRight)
+                .collect(Collectors.toList());
+        SearchEngine.Results ranked = engine.rank(terms, resultsSize, exhaustive);
+        return new Result(query, terms, ranked, System.nanoTime() - start);
+    }
+
+    private void write(Writer out, Format format, Result result) throws IOException {
+        List<Map.Entry<Integer, Double>> results = result.ranked.getResults();
+
+        if (format == Format.TREC) {
+            for (int i = 0; i < results.size(); i++) {
+                Map.Entry<Integer, Double> entry = results.get(i);
+                out.write(String.format("%s Q0 %d %d %.6f %s%n",
+                        result.query.id, SearchJson.documentNumber(result.ranked, entry.getKey()), i + 1, entry.getValue(), RUN_TAG));
+            }
+            return;
+        }
+
+        JsonObject line = new JsonObject();
+        line.addProperty("qid", result.query.id);
+        line.addProperty("query", result.query.text);
+        line.add("terms", SearchJson.terms(result.terms));
+        line.addProperty("scored", result.ranked.getScoredDocuments());
+        line.addProperty("latency_ms", result.latency / 1e6);
+        line.add("results", SearchJson.documents(result.ranked, 0));
+        out.write(gson.toJson(line));
+        out.write('\n');
+    }
+
+    /**
+     * Summary of a batch: throughput and latency percentiles (nearest rank)
+     * @param latencies latency of every query, in ns
+     * @param elapsed wall time of the batch, in ns
+     * @param workers
+     * @return
+     */
+    private String statistics(long[] latencies, long elapsed, int workers) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Queries: %d, workers: %d, similarity: %s, wall time: %.3f s, throughput: %.1f queries/s%n",
+                sorted.length, workers, engine.getSimilarity(), elapsed / 1e9, sorted.length / (elapsed / 1e9)));
+        if (sorted.length > 0) {
+            sb.append(String.format("Latency (ms): mean %.3f", Arrays.stream(sorted).average().getAsDouble() / 1e6));
+            for (double p : PERCENTILES) {
+                int rank = (int) Math.ceil(p / 100 * sorted.length) - 1;
+                sb.append(String.format(", p%.0f %.3f", p, sorted[Math.max(rank, 0)] / 1e6));
+            }
+            sb.append(String.format(", max %.3f%n", sorted[sorted.length - 1] / 1e6));
+        }
+        sb.append("Query cache: ").append(engine.getQueryCache());
+        return sb.toString();
+    }
+
+    private static List<Query> readQueries(String queriesPath) throws IOException {
+        List<Query> queries = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(queriesPath), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                queries.add(tab < 0
+                        ? new Query(Integer.toString(number), line.trim())
+                        : new Query(line.substring(0, tab).trim(), line.substring(tab + 1).trim()));
+            }
+        }
+        return queries;
+    }
+
+    private static class Query {
+
+        private final String id;
+        private final String text;
+
+        Query(String id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+    }
+
+    private static class Result {
+
+        private final Query query;
+        private final List<String> terms;
+        private final SearchEngine.Results ranked;
+        private final long latency;
+
+        Result(Query query, List<String> terms, SearchEngine.Results ranked, long latency) {
+            this.query = query;
+            this.terms = terms;
+            this.ranked = ranked;
+            this.latency = latency;
+        }
+    }
+}
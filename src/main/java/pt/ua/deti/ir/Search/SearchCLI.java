@@ -5,14 +5,17 @@ import de.vandermeer.asciitable.v2.render.V2_AsciiTableRenderer;
 import de.vandermeer.asciitable.v2.render.WidthFixedColumns;
 import de.vandermeer.asciitable.v2.themes.V2_E_TableThemes;
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import pt.ua.deti.ir.Ranker.Ranker;
+import pt.ua.deti.ir.Log;
+import pt.ua.deti.ir.Ranker.Similarity;
+import pt.ua.deti.ir.Ranker.TFIDFSimilarity;
 import pt.ua.deti.ir.Structures.CorpusStatistics;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 /**
@@ -22,7 +25,10 @@ import java.util.stream.Collectors;
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class SearchCLI {
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+
     private final SearchEngine engine;
+    private final boolean exhaustive;
 
     /**
      * Initializes a SearchCLI
@@ -30,7 +36,37 @@ public class SearchCLI {
      * @param filterListPath filter list filepath used for filtering queries
      */
     public SearchCLI(String outputPath, String filterListPath) {
-        this.engine = new SearchEngine(outputPath, filterListPath);
+        this(outputPath, filterListPath, false);
+    }
+
+    /**
+     * Initializes a SearchCLI
+     * @param outputPath the path where the indexer output is
+     * @param filterListPath filter list filepath used for filtering queries
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     */
+    public SearchCLI(String outputPath, String filterListPath, boolean exhaustive) {
+        this(outputPath, filterListPath, exhaustive, new TFIDFSimilarity());
+    }
+
+    /**
+     * Initializes a SearchCLI
+     * @param outputPath the path where the indexer output is
+     * @param filterListPath filter list filepath used for filtering queries
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     * @param similarity ranking model of the queries
+     */
+    public SearchCLI(String outputPath, String filterListPath, boolean exhaustive, Similarity similarity) {
+        this.engine = new SearchEngine(outputPath, filterListPath, similarity);
+        this.exhaustive = exhaustive;
+    }
+
+    /**
+     * Getter - cache of the ranked queries, with its hit rate and latency counters
+     * @return
+     */
+    public QueryCache getQueryCache() {
+        return engine.getQueryCache();
     }
 
     /**
@@ -40,15 +76,16 @@ public class SearchCLI {
      */
     public void query(String query, int resultsSize) {
         ArrayList<ImmutablePair<String, String>> squery = engine.splitQuery(query);
+        List<String> terms = squery.stream().map(ImmutablePair::getRight).collect(Collectors.toList());
 
-        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>> res = new ConcurrentHashMap<>();
-
-        if (!squery.isEmpty())
-            squery.forEach(e -> res.putAll(engine.search(e.getRight())));
+        engine.refresh();
 
-        CorpusStatistics corpusStatistics = engine.getCorpusStatistics();
-        Ranker ranker = new Ranker(corpusStatistics);
-        ConcurrentSkipListMap<Integer, Double> sortResults = ranker.rankResults(res);
+        SearchEngine.Results ranked = engine.rank(terms, resultsSize, exhaustive);
+        CorpusStatistics corpusStatistics = ranked.getCorpusStatistics();
+        LOGGER.log(Level.FINE, "Query cache: {0}", engine.getQueryCache());
+        Iterator<Map.Entry<Integer, Double>> iterator = ranked.getResults().iterator();
+        String resultsLabel = exhaustive ? "Results found" : "Documents scored";
+        int resultsCount = ranked.getScoredDocuments();
 
         V2_AsciiTable at = new V2_AsciiTable();
 
@@ -59,11 +96,11 @@ public class SearchCLI {
 
         at.addRow(null, "Terms:", null, null, null, "");
         at.addRow(null, "• Query", null, null, null, squery.stream().map(t -> t.left).collect(Collectors.toList()));
-        at.addRow(null, "• Tokenized", null, null, null, squery.stream().map(ImmutablePair::getRight).collect(Collectors.toList()));
+        at.addRow(null, "• Tokenized", null, null, null, terms);
         at.addRule();
         at.addRule();
 
-        at.addRow(null, "Results found", null, null, null, sortResults.size());
+        at.addRow(null, resultsLabel, null, null, null, resultsCount);
         at.addRule();
         at.addRow(null, "Database size", null, null, null, corpusStatistics.getCorpusCount());
         at.addRule();
@@ -76,11 +113,10 @@ public class SearchCLI {
         at.addRow("Rank", "Score", "Document", null, null, "Path").setAlignment(new char[]{'c', 'c', 'c', 'c', 'c', 'c'});
         at.addRule();
 
-        Iterator<Map.Entry<Integer, Double>> iterator = sortResults.entrySet().parallelStream().sorted((v1, v2) -> Double.compare(v2.getValue(), v1.getValue())).iterator();
         if (iterator.hasNext()) {
             for (int i = 0; i < resultsSize && iterator.hasNext(); i++) {
                 Map.Entry<Integer, Double> next = iterator.next();
-                at.addRow(i + 1, next.getValue(), next.getKey(), null, null, engine.getDocumentMap(next.getKey())).setAlignment(new char[]{'c', 'l', 'c', 'c', 'c', 'l'});
+                at.addRow(i + 1, next.getValue(), next.getKey(), null, null, ranked.getDocumentMap(next.getKey())).setAlignment(new char[]{'c', 'l', 'c', 'c', 'c', 'l'});
             }
         } else {
             at.addRow(null, null, null, null, null, "No results found");
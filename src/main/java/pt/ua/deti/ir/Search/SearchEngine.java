@@ -1,71 +1,82 @@
 package pt.ua.deti.ir.Search;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.MutableTriple;
-import org.apache.commons.lang3.tuple.Pair;
 import pt.ua.deti.ir.Constants;
 import pt.ua.deti.ir.Coordinator.Coordinator;
-import pt.ua.deti.ir.Structures.Concurrent.ConcurrentTermMap;
+import pt.ua.deti.ir.Ranker.RankedResults;
+import pt.ua.deti.ir.Ranker.Ranker;
+import pt.ua.deti.ir.Ranker.Similarity;
+import pt.ua.deti.ir.Ranker.TFIDFSimilarity;
 import pt.ua.deti.ir.Structures.CorpusStatistics;
 import pt.ua.deti.ir.Tokenizer.Filter;
 import pt.ua.deti.ir.Tokenizer.StopWordFilter;
 import pt.ua.deti.ir.Tokenizer.Tokenizer;
 import pt.ua.deti.ir.Utils.Disk.DiskManager;
 import pt.ua.deti.ir.Utils.Disk.DiskUtils;
-import pt.ua.deti.ir.Utils.Mem.MemMgr;
-import pt.ua.deti.ir.Utils.Mem.MemUtil;
+import pt.ua.deti.ir.Utils.Disk.ConcatPostingIterator;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.LiveDocs;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+import pt.ua.deti.ir.Utils.Disk.SegmentManifest;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Objects;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * 
- * Provides a search engine over the index maps built during the indexing phase,
- * it uses a dynamic cache for this purpose
+ * Provides a search engine over the index maps built during the indexing phase.
+ * The index is made of segments, each with its memory mapped master term map and document store; a term is
+ * searched in every segment and its postings are concatenated, in docID order. The live documents of every
+ * segment are gathered in a single bitset over the whole docID range, which the ranking checks before scoring, and
+ * so are the norms of their documents, which the {@link Similarity} scores the term frequencies of the postings with.
+ * Every time the index files change on disk (see {@link #refresh()}) the live segments are opened again and the
+ * index generation goes up, so anything derived from the previous index can be told apart. Ranked results keep the
+ * generation they were ranked on, their docIDs are resolved against it
  * 
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 class SearchEngine {
-    private final ConcurrentSkipListMap<String, Integer> splitTable;
     private final Tokenizer tkzer;
-    //key -> timestamp, term map
-    private final ConcurrentSkipListMap<String, MutablePair<Long, ConcurrentTermMap>> tmap_cache;
-    //docID -> timestamp, docMap Path, docMap
-    private final ConcurrentSkipListMap<Integer, MutableTriple<Long, String, ConcurrentHashMap<Integer, Pair<String, Integer>>>> dmap_cache;
+    private final Similarity similarity;
+    //live segments in docID order and their deletions, published together
+    private volatile Snapshot snapshot = new Snapshot(0, new SegmentReader[0], null, new DocNorms(0), null);
+    //size and modification time of the index files
+    private long stamp;
     private final DiskManager dm;
-    private final MemMgr mem;
     private final String dirname;
+    private final QueryCache cache = new QueryCache(Constants.QUERY_CACHE_BYTES);
 
     /**
-     * Initialize a SearchEngine
+     * Initialize a SearchEngine ranking with TF-IDF
      * @param dirname the path where the indexer output is
      * @param stopwordspath filter list filepath used for filtering queries
      */
     public SearchEngine(String dirname, String stopwordspath) {
+        this(dirname, stopwordspath, new TFIDFSimilarity());
+    }
+
+    /**
+     * Initialize a SearchEngine
+     * @param dirname the path where the indexer output is
+     * @param stopwordspath filter list filepath used for filtering queries
+     * @param similarity ranking model of the queries
+     */
+    public SearchEngine(String dirname, String stopwordspath, Similarity similarity) {
         this.dirname = dirname;
+        this.similarity = similarity;
 
         dm = new DiskManager(dirname);
-        mem = new MemMgr();
-        Thread memT = new Thread(mem);
-        memT.start();
-
-        tmap_cache = new ConcurrentSkipListMap<>();
-
-        dmap_cache = new ConcurrentSkipListMap<>();
-        //since dmaps holds a mapping docID interval -> docID filepath we can afford to load this map in to mem right now
-        buildDmap_cache();
+        open();
 
         HashSet<String> stopWords = new HashSet<>();
         try {
@@ -74,240 +85,363 @@ class SearchEngine {
             Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
         }
 
-        //despite this not being thread-safe, the Tokenizer is accessed in a synchronized fashion
+        // the Tokenizer keeps a stemmer per thread, so queries are split concurrently
         Filter filter = new StopWordFilter(stopWords);
         tkzer = new Tokenizer(filter);
-
-        //build our split table
-        splitTable = new ConcurrentSkipListMap<>();
-        buildSplitTable();
     }
 
     /**
      * Searches for a token within the index
      * @param token the token
-     * @return a mapping between the found token and document IDs
+     * @return a mapping between the found token and document IDs, along with the term frequency in each document
      */
     public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>> search(String token) {
         ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>> mapping = new ConcurrentHashMap<>();
 
-        int level = checkSplitLevel(token);
-
-        if (tmap_cache.entrySet().stream().sequential().noneMatch(entry -> entry.getKey().equals(token.substring(0, level)))) {
-            //tmap not loaded - we need to load the correspondent map to search for matching docIDs
-            String l_idx = token.substring(0, level);
-            File toLoad = new File(dirname + "/" + l_idx + ".termMap.master");
-
-            if (!toLoad.exists()) {
-                //the token we are searching for is not mapped in disk, so we return an empty map
-                return mapping;
-            }
-            long fileSize = toLoad.length();
-
-            double used = mem.getUsedPer();
-            double max = mem.getMaxMem();
-            long fSizeMB = MemUtil.toMB(fileSize);
-            double inflateRate = 2.0;
-            double inflated = fSizeMB * inflateRate / max;
-            double toCompare = used + inflated;
-
-            while (toCompare >= 0.60 && !tmap_cache.isEmpty()) {
-                timeOutTMap();
-                System.runFinalization();
-                System.gc();
-            }
-            loadTMap(l_idx, toLoad.getAbsolutePath());
-        }
-
         //list of doc IDs where the term occurs
-        //retrieve the token termMap
-        ConcurrentHashMap<Integer, Double> docIDs = tmap_cache.get(token.substring(0, level))
-                .getRight()
-                .getTmap()
-                .get(token);
-
-        if (docIDs == null) {
-            //the token we are searching for is not mapped in memory, so we return an empty map
+        Snapshot current = snapshot;
+        PostingIterator postings = postings(current.segments, token);
+        if (postings == null) {
             return mapping;
         }
 
-        //update the timestamp
-        tmap_cache.get(token.substring(0, level))
-                .setLeft(System.currentTimeMillis());
-
-        //insert said list into a mapping data structure
+        //insert said list into a mapping data structure, without the deleted documents
+        ConcurrentHashMap<Integer, Double> docIDs = new ConcurrentHashMap<>(postings.size() * 2);
+        for (int doc = postings.nextDoc(); doc != PostingIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+            if (current.liveDocs == null || current.liveDocs.isLive(doc)) {
+                docIDs.put(doc, (double) postings.freq());
+            }
+        }
         mapping.put(token, docIDs);
 
         return mapping;
     }
 
+    /**
+     * Lazy iterator over the postings of a token
+     * @param token the token
+     * @return the iterator or null if the token is not in the index
+     */
+    public PostingIterator postings(String token) {
+        return postings(snapshot.segments, token);
+    }
+
+    /**
+     * Lazy iterator over the postings of a token in some segments
+     * @param current segments in docID order
+     * @param token
+     * @return the iterator or null if the token is not in any segment
+     */
+    private static PostingIterator postings(SegmentReader[] current, String token) {
+        if (current.length == 1) {
+            return current[0].postings(token);
+        }
+
+        //null if the token we are searching for is not mapped in disk
+        List<PostingIterator> its = new ArrayList<>(current.length);
+        for (SegmentReader segment : current) {
+            PostingIterator it = segment.postings(token);
+            if (it != null) {
+                its.add(it);
+            }
+        }
+        if (its.isEmpty()) {
+            return null;
+        }
+        return its.size() == 1 ? its.get(0) : new ConcatPostingIterator(its);
+    }
+
     /**
      * Tokenizes a query string
      *
      * @param query
      * @return
      */
-    public synchronized ArrayList<ImmutablePair<String, String>> splitQuery(String query) {
+    public ArrayList<ImmutablePair<String, String>> splitQuery(String query) {
         return tkzer.tokenizeQueryPair(query);
     }
 
     /**
-     * Get the closest docMap ID to the given docID
-     *
-     * @param docID
-     * @return
+     * Rank a tokenized query over the current index, through the query cache. Thread-safe
+     * @param terms stemmed query terms
+     * @param k number of results
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     * @return the results, along with the generation they were ranked on
      */
-    private Integer getClosestDocumentMapID(int docID) {
-        return dmap_cache.ceilingKey(docID);
+    public Results rank(List<String> terms, int k, boolean exhaustive) {
+        // segments, deletions, norms and statistics of the generation the results are cached under
+        Snapshot index = snapshot;
+        RankedResults ranked = cache.get(terms, k, exhaustive, index.generation, () ->
+        {
+            Ranker ranker = new Ranker(index.stats, index.liveDocs, index.norms, similarity);
+
+            Map<String, PostingIterator> postings = new HashMap<>();
+            terms.forEach(term ->
+            {
+                PostingIterator it = postings(index.segments, term);
+                if (it != null) {
+                    postings.put(term, it);
+                }
+            });
+
+            return exhaustive
+                    ? ranker.rankExhaustive(postings, k)
+                    : ranker.rankTopK(postings, k);
+        });
+        return new Results(ranked, index);
     }
 
     /**
-     * Query the document map cache for a document ID
-     * @param docID
+     * Getter - cache of the ranked queries, with its hit rate and latency counters
      * @return
      */
-    private String getDocumentMapPath(int docID) {
-        return dmap_cache.ceilingEntry(docID).getValue().getMiddle();
+    public QueryCache getQueryCache() {
+        return cache;
     }
 
     /**
-     * Find and retrieve the document map based on the document ID
-     * @param docID
+     * Getter - statistics of the corpus, as read from disk when the index was opened
      * @return
      */
-    public String getDocumentMap(int docID) {
-        String path = getDocumentMapPath(docID);
-        int closestID = getClosestDocumentMapID(docID);
-
-        long fileSize = new File(path).length();
-
-        double used = mem.getUsedPer();
-        double max = mem.getMaxMem();
-        long fSizeMB = MemUtil.toMB(fileSize);
-        double inflateRate = 2.5;
-        double inflated = fSizeMB * inflateRate / max;
-        double toCompare = used + inflated;
-
-        while (toCompare >= 0.50 && !dmap_cache.entrySet().parallelStream().allMatch(entry -> entry.getValue().getRight() == null)) {
-            timeOutDMap();
-            System.runFinalization();
-            System.gc();
-        }
-        loadDMap(closestID);
-
-        return dmap_cache.get(closestID).getRight().get(docID).getLeft();
-
+    public CorpusStatistics getCorpusStatistics() {
+        return snapshot.stats;
     }
 
     /**
-     * Read and unserialize the corpus statistics file into memory
+     * Getter - ranking model of the queries
      * @return
      */
-    public CorpusStatistics getCorpusStatistics() {
-        return (CorpusStatistics) dm.read(new File(dirname + "/" + Constants.STATS_FILE).getAbsolutePath());
+    public Similarity getSimilarity() {
+        return similarity;
     }
 
     /**
-     * Timeout and remove from cache the oldest term map
+     * Getter - index generation, incremented every time the index is opened again
+     * @return
      */
-    private void timeOutTMap() {
-
-        //remove the tmap with the oldest timestamp
-        String key = tmap_cache.entrySet()
-                .parallelStream()
-                .filter(Objects::nonNull)
-                .filter(entry -> entry.getValue() != null)
-                .min(Comparator.comparingLong(map -> map.getValue().getLeft()))
-                .get()
-                .getKey();
-
-        tmap_cache.remove(key);
+    public long getGeneration() {
+        return snapshot.generation;
     }
 
     /**
-     * Given a file path, load a TermMap into memory (into the tmaps object)
-     *
-     * @param filepath
+     * Open the index again if its files changed on disk since it was last opened
+     * @return true if the index was opened again
      */
-    @SuppressWarnings("unchecked")
-    private void loadTMap(String key, String filepath) {
-        tmap_cache.put(key, new MutablePair<>(System.currentTimeMillis(), new ConcurrentTermMap((ConcurrentHashMap<String, ConcurrentHashMap<Integer, Double>>) dm.read(filepath))));
+    public synchronized boolean refresh() {
+        return indexStamp() != stamp && open();
     }
 
     /**
-     * Timeout and remove from cache the oldest document map
+     * Open the live segments and their corpus statistics, as a new generation.
+     * Segments that were already open are kept. If a segment can not be opened (a merge may have just replaced it)
+     * or the statistics can not be read, the current index is kept and the next refresh tries again
+     * @return true if the index was opened
      */
-    private void timeOutDMap() {
-
-        Integer docID = dmap_cache.entrySet()
-                .parallelStream()
-                .filter(entry -> entry.getValue().getLeft() != null && entry.getValue().getRight() != null)
-                .min(Comparator.comparingLong(map -> map.getValue().getLeft()))
-                .get()
-                .getKey();
+    private synchronized boolean open() {
+        long current = indexStamp();
+        try {
+            // a single assignment publishes the whole generation
+            snapshot = openSegments(snapshot.generation + 1);
+        } catch (IOException ex) {
+            Logger.getLogger(SearchEngine.class.getName()).log(Level.WARNING, null, ex);
+            return false;
+        }
+        stamp = current;
+        return true;
+    }
 
-        dmap_cache.get(docID).setLeft(null);
-        dmap_cache.get(docID).setRight(null);
+    /**
+     * Fingerprint of the index files, their sizes and modification times.
+     * Segments are immutable, so the segments file covers them
+     * @return
+     */
+    private long indexStamp() {
+        long h = 17;
+        for (String name : new String[]{Constants.SEGMENTS_FILE, Constants.POSTINGS_FILE, Constants.DICTIONARY_FILE,
+                Constants.DOC_STORE_FILE, Constants.DOC_PATHS_FILE, Constants.NORMS_FILE, Constants.STATS_FILE}) {
+            File file = new File(dirname + "/" + name);
+            h = 31 * h + file.lastModified();
+            h = 31 * h + file.length();
+        }
+        return h;
     }
 
     /**
-     * Given a key, it loads one docMap into memory
+     * Open the live segments, in docID order, and gather their deletions and norms. The corpus statistics are taken
+     * from the manifest naming the segments, so they always describe them. An index written before segments is a
+     * single segment, the index directory itself, with its statistics file
      *
-     * @param key
+     * @param generation generation of the index to open
+     * @return the segments, empty if there is no index
+     * @throws IOException
      */
-    @SuppressWarnings("unchecked")
-    private void loadDMap(int key) {
-        String path = dmap_cache.get(key).getMiddle();
+    private Snapshot openSegments(long generation) throws IOException {
+        if (!SegmentManifest.exists(dirname)) {
+            SegmentReader legacy = SegmentReader.open(new File(dirname), "", 0);
+            if (legacy == null) {
+                return new Snapshot(generation, new SegmentReader[0], null, new DocNorms(0), null);
+            }
+            CorpusStatistics stats = (CorpusStatistics) dm.read(new File(dirname + "/" + Constants.STATS_FILE).getAbsolutePath());
+            if (stats == null) {
+                throw new IOException("Unreadable corpus statistics in " + dirname);
+            }
+            return new Snapshot(generation, new SegmentReader[]{legacy}, null, legacy.getNorms(), stats);
+        }
+
+        Map<String, SegmentReader> open = new HashMap<>();
+        for (SegmentReader segment : snapshot.segments) {
+            open.put(segment.getName(), segment);
+        }
 
-        dmap_cache.put(key, new MutableTriple<>(System.currentTimeMillis(), path, (ConcurrentHashMap<Integer, Pair<String, Integer>>) dm.read(path)));
+        SegmentManifest manifest = SegmentManifest.read(dirname);
+        CorpusStatistics stats = new CorpusStatistics(dirname);
+        stats.update(manifest);
+        List<SegmentReader> live = new ArrayList<>();
+        int deleted = 0;
+        int maxDoc = 0;
+        for (SegmentInfo info : manifest.getSegments()) {
+            File dir = manifest.directory(info.getName());
+            SegmentReader segment = open.get(info.getName());
+            if (segment == null) {
+                segment = SegmentReader.open(dir, info.getName(), info.getBase());
+                if (segment == null) {
+                    throw new IOException("Missing segment " + info);
+                }
+            }
+            live.add(segment.withLiveDocs(dir, info));
+            deleted += info.getDeletedCount();
+            maxDoc = info.getBase() + info.getDocumentCount();
+        }
+
+        LiveDocs liveDocs = null;
+        if (deleted > 0) {
+            liveDocs = new LiveDocs(maxDoc);
+            for (SegmentReader segment : live) {
+                if (segment.getLiveDocs() != null) {
+                    liveDocs.deleteAll(segment.getLiveDocs(), segment.getBase());
+                }
+            }
+        }
+        DocNorms norms;
+        if (live.size() == 1) {
+            norms = live.get(0).getNorms();
+        } else {
+            norms = new DocNorms(0, maxDoc);
+            for (SegmentReader segment : live) {
+                norms.setAll(segment.getNorms(), segment.getBase());
+            }
+        }
+        return new Snapshot(generation, live.toArray(new SegmentReader[0]), liveDocs, norms, stats);
     }
 
     /**
-     * Builds the docMap cache map
+     * Segment holding a docID
+     * @param current segments in docID order
+     * @param docID
+     * @return the segment or null if no segment may hold it
      */
-    private void buildDmap_cache() {
-        dm.getRFiles()
-                .parallelStream()
-                .filter(file -> file.getName().contains("docMap"))
-                .forEach(file -> dmap_cache.put(Integer.valueOf(file.getName().split("\\.")[0]), new MutableTriple<>(System.currentTimeMillis(), file.getPath(), null)));
+    private static SegmentReader segment(SegmentReader[] current, int docID) {
+        int lo = 0;
+        int hi = current.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (current[mid].getBase() <= docID) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi < 0 ? null : current[hi];
     }
 
     /**
-     * Build an in-memory mapping between the filenames of on-disk master term maps and their filename lengths.
-     * Why you ask? Because we need be able to decide on how to split a term to find its on-disk term map efficiently.
+     * Segments of an index generation along with their live documents, norms and corpus statistics, so a query never
+     * sees the deletions or the document counts of another generation
      */
-    private void buildSplitTable() {
-        dm.getRFiles()
-                .parallelStream()
-                .filter(file -> file.getName().contains("termMap.master"))
-                .map(file -> file.getName().split("\\.")[0])
-                .collect(Collectors.toCollection(ConcurrentSkipListSet::new))
-                .parallelStream()
-                .forEach(filename ->
-                        splitTable.put(filename, filename.length()));
+    private static final class Snapshot {
+
+        private final long generation;
+        private final SegmentReader[] segments;
+        //null if no document is deleted
+        private final LiveDocs liveDocs;
+        private final DocNorms norms;
+        //null if there is no index
+        private final CorpusStatistics stats;
+
+        Snapshot(long generation, SegmentReader[] segments, LiveDocs liveDocs, DocNorms norms, CorpusStatistics stats) {
+            this.generation = generation;
+            this.segments = segments;
+            this.liveDocs = liveDocs;
+            this.norms = norms;
+            this.stats = stats;
+        }
     }
 
     /**
-     * Using the previously built splitTable, find the split level of a term.
-     *
-     * @param term
-     * @return
+     * Ranked results of a query along with the index generation they were ranked on. A refresh may publish a
+     * generation with other docIDs (a merge compacts them) while the results are rendered, so their documents are
+     * looked up in the segments they were ranked with
      */
-    private int checkSplitLevel(String term) {
-        long hits = splitTable.entrySet().parallelStream().filter(entry -> entry.getKey().charAt(0) == term.charAt(0)).count();
-
-        if (hits == 1) {
-            return 1;
-        } else if (hits > 1) {
-            return dm.getRFiles().parallelStream()
-                    .map(File::getName)
-                    .filter(filename -> filename.charAt(0) == term.charAt(0))
-                    .collect(Collectors.toList())
-                    .get(0)
-                    .split("\\.")[0]
-                    .length();
+    static final class Results {
+
+        private final RankedResults ranked;
+        private final Snapshot index;
+
+        private Results(RankedResults ranked, Snapshot index) {
+            this.ranked = ranked;
+            this.index = index;
+        }
+
+        /**
+         * Getter - docID and score of the top documents, best first
+         * @return
+         */
+        List<Map.Entry<Integer, Double>> getResults() {
+            return ranked.getResults();
         }
-        return 0;
-    }
 
+        /**
+         * Getter - number of documents fully scored to find the top documents
+         * @return
+         */
+        int getScoredDocuments() {
+            return ranked.getScoredDocuments();
+        }
+
+        /**
+         * Getter - index generation the results were ranked on
+         * @return
+         */
+        long getGeneration() {
+            return index.generation;
+        }
+
+        /**
+         * Getter - statistics of the corpus the results were ranked with
+         * @return
+         */
+        CorpusStatistics getCorpusStatistics() {
+            return index.stats;
+        }
+
+        /**
+         * Find the file path of a ranked document
+         * @param docID
+         * @return the path or null if the document is unknown
+         */
+        String getDocumentMap(int docID) {
+            SegmentReader segment = segment(index.segments, docID);
+            return segment == null ? null : segment.getPath(docID);
+        }
+
+        /**
+         * Find the original Id of a ranked document
+         * @param docID
+         * @return the Id or -1 if the document is unknown
+         */
+        int getDocumentId(int docID) {
+            SegmentReader segment = segment(index.segments, docID);
+            return segment == null ? -1 : segment.getId(docID);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package pt.ua.deti.ir.Search;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON rendering of ranked results, shared by the batch runs and the search server
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+final class SearchJson {
+
+    private SearchJson() {
+    }
+
+    /**
+     * Ranked documents from a given rank on: rank, docID, original Id, score and path of each one
+     * @param ranked ranked results, best first, and the index they were ranked on
+     * @param from index of the first result to render
+     * @return
+     */
+    static JsonArray documents(SearchEngine.Results ranked, int from) {
+        List<Map.Entry<Integer, Double>> results = ranked.getResults();
+        JsonArray documents = new JsonArray();
+        for (int i = from; i < results.size(); i++) {
+            Map.Entry<Integer, Double> entry = results.get(i);
+            JsonObject document = new JsonObject();
+            document.addProperty("rank", i + 1);
+            document.addProperty("doc", entry.getKey());
+            document.addProperty("id", documentNumber(ranked, entry.getKey()));
+            document.addProperty("score", entry.getValue());
+            document.addProperty("path", ranked.getDocumentMap(entry.getKey()));
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    /**
+     * Query terms as a JSON array
+     * @param terms
+     * @return
+     */
+    static JsonArray terms(List<String> terms) {
+        JsonArray array = new JsonArray();
+        terms.forEach(array::add);
+        return array;
+    }
+
+    /**
+     * Original Id of a ranked document, as found in the corpus, or its docID when the Id is unknown
+     * @param ranked results holding the document, and the index they were ranked on
+     * @param docID
+     * @return
+     */
+    static int documentNumber(SearchEngine.Results ranked, int docID) {
+        int id = ranked.getDocumentId(docID);
+        return id < 0 ? docID : id;
+    }
+}
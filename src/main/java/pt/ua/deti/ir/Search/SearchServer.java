@@ -0,0 +1,294 @@
+package pt.ua.deti.ir.Search;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import pt.ua.deti.ir.Constants;
+import pt.ua.deti.ir.Log;
+import pt.ua.deti.ir.Ranker.Similarity;
+import pt.ua.deti.ir.Ranker.TFIDFSimilarity;
+import pt.ua.deti.ir.Structures.CorpusStatistics;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Long-running HTTP search service over a single resident {@link SearchEngine}, built on the JDK HttpServer.
+ * Requests are handled concurrently, on virtual threads when the JDK has them, otherwise on a fixed pool.
+ * Endpoints, answering JSON:
+ * - /search: GET with the q, k and offset parameters, or POST of a {"query", "k", "offset"} object;
+ *   k results are returned starting at rank offset + 1
+ * - /stats: corpus statistics, similarity, index generation and query cache counters
+ * The index is checked for changes on disk in the background, so requests never wait on a refresh.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class SearchServer {
+    private final static Logger LOGGER = Logger.getLogger(Log.class.getName());
+
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+
+    private final SearchEngine engine;
+    private final boolean exhaustive;
+    private final Gson gson = new Gson();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * Initializes a SearchServer, bound but not yet started
+     * @param outputPath the path where the indexer output is
+     * @param filterListPath filter list filepath used for filtering queries
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     * @param port TCP port to listen on
+     * @throws IOException if the port can not be bound
+     */
+    public SearchServer(String outputPath, String filterListPath, boolean exhaustive, int port) throws IOException {
+        this(outputPath, filterListPath, exhaustive, new TFIDFSimilarity(), port);
+    }
+
+    /**
+     * Initializes a SearchServer, bound but not yet started
+     * @param outputPath the path where the indexer output is
+     * @param filterListPath filter list filepath used for filtering queries
+     * @param exhaustive if true, score every matching document instead of only searching the top results
+     * @param similarity ranking model of the queries
+     * @param port TCP port to listen on
+     * @throws IOException if the port can not be bound
+     */
+    public SearchServer(String outputPath, String filterListPath, boolean exhaustive, Similarity similarity, int port)
+            throws IOException {
+        this.engine = new SearchEngine(outputPath, filterListPath, similarity);
+        this.exhaustive = exhaustive;
+
+        // the headers and the body are written apart, Nagle's algorithm would hold the body until the delayed ACK
+        if (System.getProperty(NO_DELAY) == null) {
+            System.setProperty(NO_DELAY, "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), Constants.SERVER_BACKLOG);
+        server.createContext("/search", this::search);
+        server.createContext("/stats", this::stats);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+
+        refresher = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread t = new Thread(r, "index-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start serving requests, the call returns right away
+     */
+    public void start() {
+        refresher.scheduleWithFixedDelay(() ->
+        {
+            if (engine.refresh()) {
+                LOGGER.log(Level.INFO, "Index reopened, generation {0}", engine.getGeneration());
+            }
+        }, Constants.SERVER_REFRESH_MS, Constants.SERVER_REFRESH_MS, TimeUnit.MILLISECONDS);
+        server.start();
+        LOGGER.log(Level.INFO, "Search server listening on port {0,number,#}", server.getAddress().getPort());
+    }
+
+    /**
+     * Stop serving, waiting up to a second for the requests being handled
+     */
+    public void stop() {
+        server.stop(1);
+        refresher.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * Executor of the requests: a virtual thread per request when the JDK supports it (Java 21+), otherwise a
+     * fixed pool of {@link Constants#SERVER_THREADS_PER_CORE} threads per core.
+     * Looked up by reflection, so the engine still builds and runs on Java 8
+     * @return
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            LOGGER.log(Level.INFO, "Handling requests on virtual threads");
+            return virtual;
+        } catch (ReflectiveOperationException ex) {
+            int threads = Runtime.getRuntime().availableProcessors() * Constants.SERVER_THREADS_PER_CORE;
+            LOGGER.log(Level.INFO, "Handling requests on {0} threads", threads);
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Map<String, String> request;
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                    request = parameters(exchange.getRequestURI().getRawQuery());
+                    break;
+                case "POST":
+                    request = body(exchange);
+                    break;
+                default:
+                    error(exchange, 405, "Use GET or POST");
+                    return;
+            }
+
+            String query = request.get("q") != null ? request.get("q") : request.get("query");
+            if (query == null || query.trim().isEmpty()) {
+                error(exchange, 400, "Missing query");
+                return;
+            }
+            int k = integer(request, "k", Constants.SERVER_RESULTS);
+            int offset = integer(request, "offset", 0);
+            if (k < 1 || offset < 0 || offset + k > Constants.SERVER_MAX_RESULTS) {
+                error(exchange, 400, "Expected k >= 1, offset >= 0 and offset + k <= " + Constants.SERVER_MAX_RESULTS);
+                return;
+            }
+
+            List<String> terms = engine.splitQuery(query)
+                    .stream()
+                    .map(ImmutablePair::getRight)
+                    .collect(Collectors.toList());
+            // a page is the tail of the top offset + k, so every page depth is ranked and cached on its own
+            SearchEngine.Results ranked = engine.rank(terms, offset + k, exhaustive);
+
+            JsonObject response = new JsonObject();
+            response.addProperty("query", query);
+            response.add("terms", SearchJson.terms(terms));
+            response.addProperty("k", k);
+            response.addProperty("offset", offset);
+            response.addProperty("scored", ranked.getScoredDocuments());
+            response.addProperty("generation", ranked.getGeneration());
+            response.add("results", SearchJson.documents(ranked, offset));
+            response.addProperty("latency_ms", (System.nanoTime() - start) / 1e6);
+            send(exchange, 200, response);
+        } catch (IllegalArgumentException | JsonParseException ex) {
+            error(exchange, 400, ex.getMessage());
+        } catch (RuntimeException ex) {
+            Logger.getLogger(SearchServer.class.getName()).log(Level.SEVERE, null, ex);
+            error(exchange, 500, "Internal error");
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            error(exchange, 405, "Use GET");
+            return;
+        }
+        CorpusStatistics corpusStatistics = engine.getCorpusStatistics();
+        QueryCache cache = engine.getQueryCache();
+
+        JsonObject response = new JsonObject();
+        response.addProperty("documents", corpusStatistics == null ? 0 : corpusStatistics.getCorpusCount());
+        response.addProperty("tokens", corpusStatistics == null ? 0 : (long) corpusStatistics.getTokenCount());
+        response.addProperty("average_length", corpusStatistics == null ? 0 : corpusStatistics.getAverageDocumentLength());
+        response.addProperty("similarity", engine.getSimilarity().toString());
+        response.addProperty("generation", engine.getGeneration());
+        JsonObject queryCache = new JsonObject();
+        queryCache.addProperty("entries", cache.size());
+        queryCache.addProperty("hits", cache.getHits());
+        queryCache.addProperty("misses", cache.getMisses());
+        queryCache.addProperty("hit_rate", cache.getHitRate());
+        queryCache.addProperty("hit_latency_ms", cache.getHitLatency());
+        queryCache.addProperty("miss_latency_ms", cache.getMissLatency());
+        response.add("query_cache", queryCache);
+        send(exchange, 200, response);
+    }
+
+    private void error(HttpExchange exchange, int status, String message) throws IOException {
+        JsonObject response = new JsonObject();
+        response.addProperty("error", message);
+        send(exchange, status, response);
+    }
+
+    private void send(HttpExchange exchange, int status, JsonObject response) throws IOException {
+        byte[] body = gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Decode the parameters of a query string
+     * @param rawQuery raw (still URL encoded) query string, may be null
+     * @return
+     */
+    private static Map<String, String> parameters(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * Read the JSON object of a request body, as a flat map of its properties
+     * @param exchange
+     * @return
+     * @throws IOException
+     */
+    private static Map<String, String> body(HttpExchange exchange) throws IOException {
+        Map<String, String> request = new HashMap<>();
+        try (Reader in = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            JsonElement element = JsonParser.parseReader(in);
+            if (!element.isJsonObject()) {
+                throw new JsonParseException("Expected a JSON object");
+            }
+            element.getAsJsonObject().entrySet().forEach(e ->
+            {
+                if (e.getValue().isJsonPrimitive()) {
+                    request.put(e.getKey(), e.getValue().getAsString());
+                }
+            });
+        }
+        return request;
+    }
+
+    private static int integer(Map<String, String> request, String name, int defaultValue) {
+        String value = request.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package pt.ua.deti.ir.Search;
+
+import pt.ua.deti.ir.Constants;
+import pt.ua.deti.ir.Utils.Disk.DocNorms;
+import pt.ua.deti.ir.Utils.Disk.DocStore;
+import pt.ua.deti.ir.Utils.Disk.LiveDocs;
+import pt.ua.deti.ir.Utils.Disk.MappedPostings;
+import pt.ua.deti.ir.Utils.Disk.PostingIterator;
+import pt.ua.deti.ir.Utils.Disk.SegmentInfo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An open index segment: its memory mapped master term map, dictionary and document store, the norms of its
+ * documents, and the generation of its live documents it was opened with.
+ * Segments never change once written, so a reader stays valid until the segment is merged away, and even then
+ * the mapped files can still be read. Deletions only need a new reader sharing the mapped files. Thread-safe.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+class SegmentReader {
+
+    private final String name;
+    private final int base;
+    private final MappedPostings postings;
+    //null if the segment has no document store
+    private final DocStore docs;
+    private final DocNorms norms;
+    private final int liveGeneration;
+    //null if no document of the segment was deleted
+    private final LiveDocs liveDocs;
+
+    private SegmentReader(String name, int base, MappedPostings postings, DocStore docs, DocNorms norms, int liveGeneration,
+                          LiveDocs liveDocs) {
+        this.name = name;
+        this.base = base;
+        this.postings = postings;
+        this.docs = docs;
+        this.norms = norms;
+        this.liveGeneration = liveGeneration;
+        this.liveDocs = liveDocs;
+    }
+
+    /**
+     * Map the files of a segment without deletions
+     * @param dir segment directory
+     * @param name segment name
+     * @param base first docID of the segment
+     * @return the segment or null if the directory has no term map
+     * @throws IOException if a file can not be read, or the norms are missing
+     */
+    static SegmentReader open(File dir, String name, int base) throws IOException {
+        File postings = new File(dir, Constants.POSTINGS_FILE);
+        File dictionary = new File(dir, Constants.DICTIONARY_FILE);
+        if (!postings.exists() || !dictionary.exists()) {
+            return null;
+        }
+        File store = new File(dir, Constants.DOC_STORE_FILE);
+        File paths = new File(dir, Constants.DOC_PATHS_FILE);
+        MappedPostings mapped = new MappedPostings(postings, dictionary);
+        return new SegmentReader(name, base, mapped, store.exists() && paths.exists() ? new DocStore(store, paths) : null,
+                DocNorms.read(new File(dir, Constants.NORMS_FILE), base), 0, null);
+    }
+
+    /**
+     * The same segment with another generation of live documents
+     * @param dir segment directory
+     * @param segment
+     * @return
+     * @throws IOException
+     */
+    SegmentReader withLiveDocs(File dir, SegmentInfo segment) throws IOException {
+        if (segment.getLiveGeneration() == liveGeneration) {
+            return this;
+        }
+        return new SegmentReader(name, base, postings, docs, norms, segment.getLiveGeneration(), LiveDocs.read(dir, segment));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Getter - first docID of the segment
+     * @return
+     */
+    int getBase() {
+        return base;
+    }
+
+    /**
+     * Getter - live documents of the segment, indexed from its first docID
+     * @return the live documents or null if the segment has no deletions
+     */
+    LiveDocs getLiveDocs() {
+        return liveDocs;
+    }
+
+    /**
+     * Getter - length and norm of the documents of the segment, indexed by docID
+     * @return
+     */
+    DocNorms getNorms() {
+        return norms;
+    }
+
+    /**
+     * Lazy iterator over the postings of a term in this segment
+     * @param term
+     * @return the iterator or null if the term is not in the segment
+     */
+    PostingIterator postings(String term) {
+        return postings.postings(term);
+    }
+
+    /**
+     * File path of a document of the segment
+     * @param docID
+     * @return the path or null if the document is unknown
+     */
+    String getPath(int docID) {
+        return docs == null ? null : docs.getPath(docID - base);
+    }
+
+    /**
+     * Original Id of a document of the segment
+     * @param docID
+     * @return the Id or -1 if the document is unknown
+     */
+    int getId(int docID) {
+        return docs == null ? -1 : docs.getId(docID - base);
+    }
+}
@@ -0,0 +1,387 @@
+package pt.ua.deti.ir.Structures.Concurrent;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Term map containing for each token its PostingList (docIDs and the respective term frequencies).
+ * Terms are kept in lock-striped open-addressing tables (linear probing), so the only objects per term are
+ * the term String and its PostingList, and there are no per posting objects at all.
+ * Every change accounts for the bytes it allocates, so the heap usage of the map is known at any time without
+ * walking it or asking the garbage collector (see {@link #sizeInBytes()}).
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class ConcurrentPostingMap {
+
+    private static final int SEGMENTS = 64;            // power of two
+    private static final int SEGMENT_CAPACITY = 16;    // power of two
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final Segment[] segments;
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Create an empty ConcurrentPostingMap
+     */
+    public ConcurrentPostingMap() {
+        segments = new Segment[SEGMENTS];
+        bytes.add(16 + 16 + 4L * SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(bytes);
+        }
+    }
+
+    /**
+     * Insert an occurrence of a term in a document.
+     * Prefer {@link #add(List, int)} when indexing a whole document, it only touches each posting list once.
+     *
+     * @param term to add to the map
+     * @param docID of the token
+     */
+    public void add(String term, int docID) {
+        Segment s = segmentFor(term);
+        synchronized (s) {
+            PostingList pl = s.getOrCreate(term);
+            int i = pl.lastIndexOf(docID);
+            if (i < 0) {
+                s.append(pl, docID, 1);
+            } else {
+                pl.setFreq(i, pl.getFreq(i) + 1);
+            }
+        }
+    }
+
+    /**
+     * Insert several terms belonging to a posting ID.
+     * The term frequencies are counted locally, so each posting list gets exactly one new posting.
+     *
+     * @param terms to add
+     * @param docID of the terms
+     */
+    public void add(List<String> terms, int docID) {
+        add(termFrequencies(terms), docID);
+    }
+
+    /**
+     * Insert the term frequency vector of a document, counted by {@link #termFrequencies}.
+     * Each posting list gets exactly one new posting, and its segment is locked once.
+     *
+     * @param tfs term -> {term frequency}
+     * @param docID of the terms
+     */
+    public void add(Map<String, int[]> tfs, int docID) {
+        tfs.forEach((term, tf) ->
+        {
+            Segment s = segmentFor(term);
+            synchronized (s) {
+                s.append(s.getOrCreate(term), docID, tf[0]);
+            }
+        });
+    }
+
+    /**
+     * Batch insertions of documentID -> weight into the current term map given a certain key
+     * @param key
+     * @param value
+     */
+    public void putMaster(String key, PostingList value) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            PostingList pl = s.get(key);
+            if (pl == null) {
+                s.put(key, value);
+            } else {
+                long before = pl.sizeInBytes();
+                pl.addAll(value);
+                s.charge(pl.sizeInBytes() - before);
+            }
+        }
+    }
+
+    /**
+     * Put a value into the map given its key, replacing any previous value
+     * @param key
+     * @param value
+     */
+    public void put(String key, PostingList value) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            s.put(key, value);
+        }
+    }
+
+    /**
+     * Retrieve the posting list of a term
+     * @param key
+     * @return the posting list or null if the term is not mapped
+     */
+    public PostingList get(String key) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            return s.get(key);
+        }
+    }
+
+    /**
+     * Remove an entry of the map based from a key
+     * @param key
+     */
+    public void remove(String key) {
+        Segment s = segmentFor(key);
+        synchronized (s) {
+            s.remove(key);
+        }
+    }
+
+    /**
+     * Iterate over every (term, posting list) pair.
+     * Each segment is locked while it is being iterated.
+     * @param action
+     */
+    public void forEach(BiConsumer<String, PostingList> action) {
+        for (Segment s : segments) {
+            synchronized (s) {
+                for (int i = 0; i < s.keys.length; i++) {
+                    if (s.keys[i] != null) {
+                        action.accept(s.keys[i], s.values[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter - list of every term in this map
+     * @return
+     */
+    public List<String> terms() {
+        List<String> terms = new ArrayList<>(getTokenCount());
+        forEach((term, pl) -> terms.add(term));
+        return terms;
+    }
+
+    /**
+     * Getter - token count for the current map
+     */
+    public int getTokenCount() {
+        int count = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                count += s.size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check if the map has no terms
+     * @return
+     */
+    public boolean isEmpty() {
+        return getTokenCount() == 0;
+    }
+
+    /**
+     * Remove every term of the map
+     */
+    public void clear() {
+        for (Segment s : segments) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    /**
+     * Approximate heap usage of this map, in bytes (terms, tables and posting lists).
+     * Kept up to date by every change, so it is cheap and never blocks indexing
+     * @return
+     */
+    public long sizeInBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Count the occurrences of each distinct term of a document, on the caller thread
+     * @param terms
+     * @return term -> {term frequency}
+     */
+    public static Map<String, int[]> termFrequencies(List<String> terms) {
+        Map<String, int[]> tfs = new HashMap<>();
+        for (String term : terms) {
+            int[] tf = tfs.get(term);
+            if (tf == null) {
+                tfs.put(term, new int[]{1});
+            } else {
+                tf[0]++;
+            }
+        }
+        return tfs;
+    }
+
+    /**
+     * Spread the hash bits so that segment selection and probing use different bits
+     * @param key
+     * @return
+     */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Heap usage of the key and value tables of a segment
+     * @param capacity
+     * @return
+     */
+    private static long tableBytes(int capacity) {
+        return 2 * (16 + 4L * capacity);
+    }
+
+    /**
+     * Heap usage of a term (String object and its backing array) and its posting list
+     * @param term
+     * @param pl
+     * @return
+     */
+    private static long entryBytes(String term, PostingList pl) {
+        return 24 + 16 + term.length() * 2L + pl.sizeInBytes();
+    }
+
+    private Segment segmentFor(String key) {
+        return segments[hash(key) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Open-addressing table guarded by its own monitor
+     */
+    private static class Segment {
+
+        private String[] keys = new String[SEGMENT_CAPACITY];
+        private PostingList[] values = new PostingList[SEGMENT_CAPACITY];
+        private int size = 0;
+        // heap usage of the segment, also added to the one of the whole map
+        private final LongAdder mapBytes;
+        private long bytes = 0;
+
+        Segment(LongAdder mapBytes) {
+            this.mapBytes = mapBytes;
+            charge(24 + tableBytes(SEGMENT_CAPACITY));
+        }
+
+        /**
+         * Account for bytes allocated (or released, if negative) by the segment
+         * @param delta
+         */
+        void charge(long delta) {
+            bytes += delta;
+            mapBytes.add(delta);
+        }
+
+        /**
+         * Append a posting to a list of the segment, accounting for the growth of its arrays
+         */
+        void append(PostingList pl, int docID, int freq) {
+            long before = pl.sizeInBytes();
+            pl.add(docID, freq);
+            charge(pl.sizeInBytes() - before);
+        }
+
+        private int slot(String key) {
+            int mask = keys.length - 1;
+            // segment selection already used the lowest bits
+            int i = (hash(key) >>> 6) & mask;
+            while (keys[i] != null && !keys[i].equals(key)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        PostingList get(String key) {
+            return values[slot(key)];
+        }
+
+        PostingList getOrCreate(String key) {
+            int i = slot(key);
+            if (keys[i] == null) {
+                PostingList pl = new PostingList();
+                insert(i, key, pl);
+                return pl;
+            }
+            return values[i];
+        }
+
+        void put(String key, PostingList value) {
+            int i = slot(key);
+            if (keys[i] == null) {
+                insert(i, key, value);
+            } else {
+                charge(value.sizeInBytes() - values[i].sizeInBytes());
+                values[i] = value;
+            }
+        }
+
+        void remove(String key) {
+            int mask = keys.length - 1;
+            int i = slot(key);
+            if (keys[i] == null) {
+                return;
+            }
+            charge(-entryBytes(keys[i], values[i]));
+            keys[i] = null;
+            values[i] = null;
+            size--;
+
+            // re-insert the rest of the probe chain so no lookup stops at the hole
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                String k = keys[j];
+                PostingList v = values[j];
+                keys[j] = null;
+                values[j] = null;
+                int n = slot(k);
+                keys[n] = k;
+                values[n] = v;
+            }
+        }
+
+        void clear() {
+            keys = new String[SEGMENT_CAPACITY];
+            values = new PostingList[SEGMENT_CAPACITY];
+            size = 0;
+            charge(24 + tableBytes(SEGMENT_CAPACITY) - bytes);
+        }
+
+        private void insert(int i, String key, PostingList value) {
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            charge(entryBytes(key, value));
+            if (size > keys.length * LOAD_FACTOR) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            String[] oldKeys = keys;
+            PostingList[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new PostingList[oldValues.length * 2];
+            charge(tableBytes(keys.length) - tableBytes(oldKeys.length));
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int n = slot(oldKeys[i]);
+                    keys[n] = oldKeys[i];
+                    values[n] = oldValues[i];
+                }
+            }
+        }
+    }
+}
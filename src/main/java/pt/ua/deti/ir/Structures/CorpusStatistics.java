@@ -3,8 +3,10 @@ package pt.ua.deti.ir.Structures;
 import pt.ua.deti.ir.Constants;
 import pt.ua.deti.ir.Log;
 import pt.ua.deti.ir.Utils.Disk.DiskManager;
+import pt.ua.deti.ir.Utils.Disk.SegmentManifest;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.logging.Level;
@@ -23,6 +25,8 @@ public class CorpusStatistics implements Serializable {
     private final String dirname;
     private BigInteger tokenCount;
     private BigInteger corpusCount;
+    private int maxDoc;
+    private double averageDocumentLength;
 
     /**
      * Initializes a CorpusStatistics
@@ -51,11 +55,35 @@ public class CorpusStatistics implements Serializable {
     }
 
     /**
-     * Save CorpusStatistics data to disk
+     * Synchronized setter - token count
+     * @param value
+     */
+    public synchronized void setTokenCount(long value) {
+        tokenCount = BigInteger.valueOf(value);
+    }
+
+    /**
+     * Take the statistics from the live segments of a manifest, the commit point they are searched with
+     * @param manifest
+     */
+    public synchronized void update(SegmentManifest manifest) {
+        setCorpusCount(manifest.getLiveDocumentCount());
+        // the postings keep the deleted documents until a merge, and so must the IDF
+        setMaxDoc(manifest.getDocumentCount());
+        setTokenCount(manifest.getTermCount());
+        setAverageDocumentLength(manifest.getAverageDocumentLength());
+    }
+
+    /**
+     * Save CorpusStatistics data to disk, replacing the previous file at once
      */
-    public void save() {
+    public synchronized void save() {
         DiskManager dm = new DiskManager(dirname);
-        dm.write(Constants.STATS_FILE, this);
+        try {
+            dm.replace(Constants.STATS_FILE, this);
+        } catch (IOException ex) {
+            Logger.getLogger(CorpusStatistics.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     /**
@@ -81,6 +109,23 @@ public class CorpusStatistics implements Serializable {
                 });
     }
     
+    /**
+     * Synchronized setter - number of documents in the postings
+     * @param value
+     */
+    public synchronized void setMaxDoc(int value) {
+        maxDoc = value;
+    }
+
+    /**
+     * Getter - number of documents in the postings, the deleted ones included until their segment is merged. The
+     * document frequencies count them too, so this is the N of the IDF, never below any document frequency
+     * @return the count, the corpus count if unknown
+     */
+    public synchronized int getMaxDoc() {
+        return maxDoc > 0 ? maxDoc : getCorpusCount();
+    }
+
     /**
      * Getter - token count
      * @return
@@ -89,4 +134,20 @@ public class CorpusStatistics implements Serializable {
         return tokenCount.intValueExact();
     }
 
+    /**
+     * Synchronized setter - average number of tokens of a document
+     * @param value
+     */
+    public synchronized void setAverageDocumentLength(double value) {
+        averageDocumentLength = value;
+    }
+
+    /**
+     * Getter - average number of tokens of a document, the length normalization of the ranking
+     * @return the average, 0 if unknown
+     */
+    public synchronized double getAverageDocumentLength() {
+        return averageDocumentLength;
+    }
+
 }
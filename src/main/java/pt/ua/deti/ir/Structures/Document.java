@@ -2,16 +2,133 @@ package pt.ua.deti.ir.Structures;
 
 import java.util.List;
 
+/**
+ * A document of the corpus, from its CSV record to its tokens.
+ * The CSVParser fills the typed fields of the record, with the body as a range of a char block shared by the
+ * documents of a batch, the CorpusReader assigns the docID and the Tokenizer replaces the body by the content.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
 public class Document {
 
-    private final Integer docID;
+    private int docID;
+    private final int id;
+    private final String creationDate;
+    private final int score;
+    private final int source;
+    private char[] text;
+    private int bodyStart;
+    private int bodyEnd;
     private List<String> content;
 
-    public Document(Integer docID, List<String> content) {
+    /**
+     * Initializes a Document out of the corpus, already tokenized
+     * @param docID
+     * @param content
+     */
+    public Document(int docID, List<String> content) {
+        this(-1, null, 0, -1, null, 0, 0);
         this.docID = docID;
         this.content = content;
     }
 
+    /**
+     * Initializes a Document out of the corpus, from its body
+     * @param docID
+     * @param body
+     */
+    public Document(int docID, String body) {
+        this(-1, null, 0, -1, body.toCharArray(), 0, body.length());
+        this.docID = docID;
+    }
+
+    /**
+     * Initializes a Document from a record of the corpus, without docID
+     * @param id original document Id
+     * @param creationDate
+     * @param score
+     * @param source ordinal of the corpus file
+     * @param text char block holding the body
+     * @param bodyStart offset of the body in the block
+     * @param bodyEnd end of the body in the block (exclusive)
+     */
+    public Document(int id, String creationDate, int score, int source, char[] text, int bodyStart, int bodyEnd) {
+        this.docID = -1;
+        this.id = id;
+        this.creationDate = creationDate;
+        this.score = score;
+        this.source = source;
+        this.text = text;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+    }
+
+    public int getDocID() {
+        return docID;
+    }
+
+    public void setDocID(int docID) {
+        this.docID = docID;
+    }
+
+    /**
+     * Getter - original document Id
+     * @return
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getCreationDate() {
+        return creationDate;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Getter - ordinal of the corpus file of the document
+     * @return
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * Getter - char block holding the body, null once tokenized
+     * @return
+     */
+    public char[] getText() {
+        return text;
+    }
+
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    public int getBodyEnd() {
+        return bodyEnd;
+    }
+
+    /**
+     * Getter - copy of the body
+     * @return the body, or null once tokenized
+     */
+    public String getBody() {
+        return text == null ? null : new String(text, bodyStart, bodyEnd - bodyStart);
+    }
+
+    /**
+     * Release the body, the char block is freed with the last document of its batch
+     */
+    public void clearBody() {
+        text = null;
+        bodyStart = 0;
+        bodyEnd = 0;
+    }
+
     public List<String> getContent() {
         return content;
     }
@@ -19,8 +136,4 @@ public class Document {
     public void setContent(List<String> content) {
         this.content = content;
     }
-
-    public Integer getDocID() {
-        return docID;
-    }
 }
@@ -0,0 +1,171 @@
+package pt.ua.deti.ir.Structures;
+
+import java.util.Arrays;
+
+/**
+ * Posting list of a single term, stored as two parallel growable primitive arrays (docIDs and term frequencies).
+ * Avoids the boxed Integer/Double and hash node overhead of a map per term.
+ * Not thread-safe, the owner map is responsible for the locking.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class PostingList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] docIDs;
+    private int[] freqs;
+    private int size;
+
+    /**
+     * Create an empty PostingList
+     */
+    public PostingList() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty PostingList with a given initial capacity
+     * @param capacity
+     */
+    public PostingList(int capacity) {
+        docIDs = new int[Math.max(capacity, 1)];
+        freqs = new int[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * Append a posting to the end of the list
+     * @param docID
+     * @param freq term frequency in the document
+     */
+    public void add(int docID, int freq) {
+        if (size == docIDs.length) {
+            grow(size + 1);
+        }
+        docIDs[size] = docID;
+        freqs[size] = freq;
+        size++;
+    }
+
+    /**
+     * Append every posting of another list to the end of this one
+     * @param other
+     */
+    public void addAll(PostingList other) {
+        if (size + other.size > docIDs.length) {
+            grow(size + other.size);
+        }
+        System.arraycopy(other.docIDs, 0, docIDs, size, other.size);
+        System.arraycopy(other.freqs, 0, freqs, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Find the position of a docID, searching from the tail since the most recent documents are the ones being updated
+     * @param docID
+     * @return position of the docID or -1 if not present
+     */
+    public int lastIndexOf(int docID) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (docIDs[i] == docID) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Getter - docID at a position
+     * @param i
+     * @return
+     */
+    public int getDocID(int i) {
+        return docIDs[i];
+    }
+
+    /**
+     * Getter - term frequency at a position
+     * @param i
+     * @return
+     */
+    public int getFreq(int i) {
+        return freqs[i];
+    }
+
+    /**
+     * Setter - term frequency at a position
+     * @param i
+     * @param freq
+     */
+    public void setFreq(int i, int freq) {
+        freqs[i] = freq;
+    }
+
+    /**
+     * Getter - number of postings (document frequency)
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sort the postings by docID.
+     * Each posting is packed in a long (docID on the high bits) so the sort runs over a single primitive array.
+     */
+    public void sort() {
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            packed[i] = ((long) docIDs[i] << 32) | (freqs[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < size; i++) {
+            docIDs[i] = (int) (packed[i] >>> 32);
+            freqs[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Check if the postings are sorted by docID
+     * @return
+     */
+    public boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (docIDs[i - 1] > docIDs[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Release the unused capacity
+     */
+    public void trim() {
+        if (size < docIDs.length) {
+            docIDs = Arrays.copyOf(docIDs, size);
+            freqs = Arrays.copyOf(freqs, size);
+        }
+    }
+
+    /**
+     * Approximate heap usage of this list, in bytes
+     * @return
+     */
+    public long sizeInBytes() {
+        // object header + 2 array references + size, plus both arrays (header + payload)
+        return 24 + 2 * (16 + 4L * docIDs.length);
+    }
+
+    /**
+     * Grow both arrays by 1.5x or to the requested capacity, whichever is bigger
+     * @param minCapacity
+     */
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, docIDs.length + (docIDs.length >> 1));
+        docIDs = Arrays.copyOf(docIDs, capacity);
+        freqs = Arrays.copyOf(freqs, capacity);
+    }
+}
@@ -0,0 +1,40 @@
+package pt.ua.deti.ir.Tokenizer;
+
+/**
+ * Stemmer decorator that looks words up in a shared {@link StemCache} before stemming them.
+ * Not thread-safe, like the stemmer it wraps, but the cache can be shared by every thread.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+class CachedStemmer implements Stemmer {
+
+    private final StemCache cache;
+    private final Stemmer stemmer;
+
+    /**
+     * Initialize a CachedStemmer
+     * @param cache shared cache
+     * @param stemmer stemmer used on cache misses
+     */
+    CachedStemmer(StemCache cache, Stemmer stemmer) {
+        this.cache = cache;
+        this.stemmer = stemmer;
+    }
+
+    @Override
+    public String stem(String word) {
+        char[] chars = word.toCharArray();
+        return stem(chars, 0, chars.length);
+    }
+
+    @Override
+    public String stem(char[] buffer, int offset, int length) {
+        String stem = cache.get(buffer, offset, length);
+        if (stem == null) {
+            stem = stemmer.stem(buffer, offset, length);
+            cache.put(buffer, offset, length, stem);
+        }
+        return stem;
+    }
+}
@@ -13,4 +13,15 @@ public interface Filter {
 	 * @return
 	 */
     boolean filter(String word);
+
+    /**
+     * A filtering method over a slice of a character buffer, implementations should avoid creating the word String
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return
+     */
+    default boolean filter(char[] buffer, int offset, int length) {
+        return filter(new String(buffer, offset, length));
+    }
 }
@@ -3,12 +3,14 @@ package pt.ua.deti.ir.Tokenizer;
 /**
  * This class provides an encapsulation of the Tartarus Snowball PorterStemmer.
  * This stemmer is used at the tokenization process.
+ * Not thread-safe, the tokenizer keeps one instance per thread.
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class PorterStemmer implements Stemmer {
 
     private final org.tartarus.snowball.ext.PorterStemmer porterStemmer;
+    private char[] buffer = new char[32];   // handed over to the snowball stemmer, which may replace it
 
     /**
      * Initialize a PorterStemmer
@@ -30,4 +32,20 @@ public class PorterStemmer implements Stemmer {
             return word;
         }
     }
+
+    @Override
+    public String stem(char[] word, int offset, int length) {
+        if (length > buffer.length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        System.arraycopy(word, offset, buffer, 0, length);
+        try {
+            porterStemmer.setCurrent(buffer, length);
+            porterStemmer.stem();
+            buffer = porterStemmer.getCurrentBuffer();
+            return new String(buffer, 0, porterStemmer.getCurrentBufferLength());
+        } catch (Exception e) {
+            return new String(word, offset, length);
+        }
+    }
 }
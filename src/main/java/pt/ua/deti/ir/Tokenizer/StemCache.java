@@ -0,0 +1,249 @@
+package pt.ua.deti.ir.Tokenizer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded surface form -> stem cache, shared by every tokenizing thread.
+ * Word frequencies follow a Zipf distribution, so a small cache absorbs most stemming calls.
+ * The cache is split in lock-striped segments, each one a fixed ring of entries evicted with the CLOCK policy
+ * (an entry hit since the hand last passed gets a second chance) and indexed by an open-addressing table
+ * (linear probing). Lookups work on a slice of a char buffer and never create a String.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class StemCache {
+
+    private static final int SEGMENTS = 64;            // power of two
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache holding up to about the given number of words
+     * @param capacity
+     */
+    public StemCache(int capacity) {
+        int entries = Math.max(1, capacity / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(entries);
+        }
+    }
+
+    /**
+     * Look the stem of a word up
+     * @param word buffer holding the word
+     * @param offset
+     * @param length
+     * @return the cached stem or null
+     */
+    public String get(char[] word, int offset, int length) {
+        int h = hash(word, offset, length);
+        Segment s = segments[h & (SEGMENTS - 1)];
+        String stem;
+        synchronized (s) {
+            stem = s.get(h, word, offset, length);
+        }
+        if (stem == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return stem;
+    }
+
+    /**
+     * Cache the stem of a word, evicting an entry of its segment if it is full
+     * @param word buffer holding the word, it is copied
+     * @param offset
+     * @param length
+     * @param stem
+     */
+    public void put(char[] word, int offset, int length, String stem) {
+        int h = hash(word, offset, length);
+        Segment s = segments[h & (SEGMENTS - 1)];
+        synchronized (s) {
+            if (s.put(h, word, offset, length, stem)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Getter - number of lookups that found the stem
+     * @return
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Getter - number of lookups that missed
+     * @return
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Getter - number of evicted words
+     * @return
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Getter - ratio of the lookups that found the stem
+     * @return
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : h / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits %d, misses %d (%.1f%% hit rate), evictions %d",
+                getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+
+    /**
+     * String.hashCode of a word slice, with the bits spread so segment selection and probing use different bits
+     * @param word
+     * @param offset
+     * @param length
+     * @return
+     */
+    private static int hash(char[] word, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + word[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * CLOCK ring of entries plus the table indexing them, guarded by its own monitor
+     */
+    private static class Segment {
+
+        private final char[][] keys;
+        private final String[] stems;
+        private final int[] hashes;
+        private final boolean[] referenced;
+        private final int[] table;      // entry index + 1, 0 is an empty slot
+        private int size = 0;
+        private int hand = 0;
+
+        Segment(int entries) {
+            keys = new char[entries][];
+            stems = new String[entries];
+            hashes = new int[entries];
+            referenced = new boolean[entries];
+            // at most half full
+            table = new int[Integer.highestOneBit(entries) << 2];
+        }
+
+        String get(int h, char[] word, int offset, int length) {
+            int slot = find(h, word, offset, length);
+            if (table[slot] == 0) {
+                return null;
+            }
+            int e = table[slot] - 1;
+            referenced[e] = true;
+            return stems[e];
+        }
+
+        /**
+         * @return true if an entry was evicted to make room
+         */
+        boolean put(int h, char[] word, int offset, int length, String stem) {
+            int slot = find(h, word, offset, length);
+            if (table[slot] != 0) {
+                return false;
+            }
+
+            boolean evicted = false;
+            int e;
+            if (size < keys.length) {
+                e = size++;
+            } else {
+                // second chance: clear the referenced bits until an unreferenced entry comes up
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % keys.length;
+                }
+                e = hand;
+                hand = (hand + 1) % keys.length;
+                remove(e);
+                evicted = true;
+                // the removal may have shifted the slot of the new word
+                slot = find(h, word, offset, length);
+            }
+
+            keys[e] = Arrays.copyOfRange(word, offset, offset + length);
+            stems[e] = stem;
+            hashes[e] = h;
+            referenced[e] = false;
+            table[slot] = e + 1;
+            return evicted;
+        }
+
+        /**
+         * Slot of a word in the table, or of the empty slot where it would go
+         */
+        private int find(int h, char[] word, int offset, int length) {
+            int mask = table.length - 1;
+            // segment selection already used the lowest bits
+            int slot = (h >>> 6) & mask;
+            while (table[slot] != 0) {
+                int e = table[slot] - 1;
+                if (hashes[e] == h && equals(keys[e], word, offset, length)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Remove an entry from the table, shifting back the rest of its probe chain so no lookup stops at the hole
+         */
+        private void remove(int e) {
+            int mask = table.length - 1;
+            int slot = (hashes[e] >>> 6) & mask;
+            while (table[slot] != e + 1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = 0;
+
+            for (int j = (slot + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int moved = table[j];
+                table[j] = 0;
+                int n = (hashes[moved - 1] >>> 6) & mask;
+                while (table[n] != 0) {
+                    n = (n + 1) & mask;
+                }
+                table[n] = moved;
+            }
+        }
+
+        private static boolean equals(char[] key, char[] word, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != word[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
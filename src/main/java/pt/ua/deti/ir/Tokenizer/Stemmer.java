@@ -14,4 +14,15 @@ interface Stemmer {
      */
     String stem(String word);
 
+    /**
+     * A stem method over a slice of a character buffer, the buffer is left untouched
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return
+     */
+    default String stem(char[] buffer, int offset, int length) {
+        return stem(new String(buffer, offset, length));
+    }
+
 }
@@ -1,27 +1,35 @@
 package pt.ua.deti.ir.Tokenizer;
 
+import org.apache.lucene.analysis.CharArraySet;
+
 import java.util.Set;
 
 /**
  * The StopWordFilter is a particular implementation of the Filter.
  * It is used to filter stop words before they are stemmed at the tokenization process.
+ * Words are kept in a CharArraySet, so a word can be looked up straight from the tokenizer buffer.
  * @author Guilherme Cardoso gjc@ua.pt
  * @author Rui Pedro ruifpedro@ua.pt
  */
 public class StopWordFilter implements Filter {
 
-    private final Set<String> stopWords;
+    private final CharArraySet stopWords;
 
     /**
      * Filter a set of string
      * @param stopWords
      */
     public StopWordFilter(Set<String> stopWords) {
-        this.stopWords = stopWords;
+        this.stopWords = CharArraySet.unmodifiableSet(new CharArraySet(stopWords, false));
     }
 
     @Override
     public boolean filter(String word) {
         return stopWords.contains(word);
     }
+
+    @Override
+    public boolean filter(char[] buffer, int offset, int length) {
+        return stopWords.contains(buffer, offset, length);
+    }
 }
@@ -13,6 +13,7 @@ import java.util.stream.Collectors;
 
 import static pt.ua.deti.ir.Constants.ASCII_WORD_REGEX_MATCH;
 import static pt.ua.deti.ir.Constants.MINIMUM_WORD_LENGTH;
+import static pt.ua.deti.ir.Constants.STEM_CACHE_SIZE;
 
 /**
  * Tokenizes the documents words
@@ -22,43 +23,102 @@ import static pt.ua.deti.ir.Constants.MINIMUM_WORD_LENGTH;
  */
 public class Tokenizer {
 
+    private static final int INITIAL_BUFFER_SIZE = 64;
+    private static final Pattern QUERY_WORD = Pattern.compile(ASCII_WORD_REGEX_MATCH); // pattern is thread safe
+
     private final Filter stopWords;
+    private final StemCache stemCache;
+    // Stemmer is NOT thread-safe! one per worker thread
+    private final ThreadLocal<Stemmer> stemmers;
+    private final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[INITIAL_BUFFER_SIZE]);
 
     /**
-     * Initialize a Tokenizer
+     * Initialize a Tokenizer, with a stem cache of {@link pt.ua.deti.ir.Constants#STEM_CACHE_SIZE} words
      * @param filter
      */
     public Tokenizer(Filter filter) {
+        this(filter, new StemCache(STEM_CACHE_SIZE));
+    }
+
+    /**
+     * Initialize a Tokenizer
+     * @param filter
+     * @param stemCache cache shared by every thread stemmer, or null to stem every word
+     */
+    public Tokenizer(Filter filter, StemCache stemCache) {
         this.stopWords = filter;
+        this.stemCache = stemCache;
+        this.stemmers = ThreadLocal.withInitial(() ->
+                stemCache == null ? new PorterStemmer() : new CachedStemmer(stemCache, new PorterStemmer()));
     }
-    
+
     /**
-     * Tokenize the words on the provided document
+     * Getter - the stem cache, null if there is none
+     * @return
+     */
+    public StemCache getStemCache() {
+        return stemCache;
+    }
+
+    /**
+     * Tokenize the body of the provided document into its content.
+     * The body is scanned char by char: words are separated by spaces and only the words made of ASCII letters
+     * and digits are kept. Each word is copied into a per thread buffer, so stop words are filtered and words are
+     * stemmed without creating an intermediate String.
      * @param doc
      */
     private void tokenize(Document doc) {
-        doc.setContent(
-                doc.getContent().stream()
-                        .filter(s -> !s.isEmpty())
-                        .filter(s -> s.length() >= MINIMUM_WORD_LENGTH)
-                        .filter(s -> !stopWords.filter(s))
-                        .filter(s -> s.matches(ASCII_WORD_REGEX_MATCH))
-                        .map((t) ->
-                        {
-                            // Stemmer is NOT thread-safe! must initialize
-                            Stemmer internalStemmer = new PorterStemmer();
-                            return internalStemmer.stem(t);
-                        })
-                        .collect(Collectors.toList())
-        );
+        char[] text = doc.getText();
+        if (text == null) {
+            return;
+        }
+        Stemmer stemmer = stemmers.get();
+        char[] buffer = buffers.get();
+        List<String> content = new ArrayList<>();
+
+        int length = 0;
+        boolean word = true;    // false once the current word has a non alphanumeric char
+        for (int i = doc.getBodyStart(), n = doc.getBodyEnd(); i <= n; i++) {
+            char c = i < n ? text[i] : ' ';
+            if (c == ' ') {
+                if (word && length >= MINIMUM_WORD_LENGTH && !stopWords.filter(buffer, 0, length)) {
+                    content.add(stemmer.stem(buffer, 0, length));
+                }
+                length = 0;
+                word = true;
+            } else if (word) {
+                if (isAsciiAlphanumeric(c)) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, length * 2);
+                        buffers.set(buffer);
+                    }
+                    buffer[length++] = c;
+                } else {
+                    word = false;
+                }
+            }
+        }
+
+        doc.setContent(content);
+        doc.clearBody();
+    }
+
+    /**
+     * Check if a char is an ASCII letter or digit
+     * @param c
+     * @return
+     */
+    private static boolean isAsciiAlphanumeric(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
     }
 
     /**
-     * Tokenize each content for every document on the provided document list
+     * Tokenize each content for every document on the provided document list.
+     * Safe to call from several threads, each call runs sequentially on the caller thread.
      * @param doclist
      */
     public void tokenize(List<Document> doclist) {
-        doclist.parallelStream().forEach(this::tokenize);
+        doclist.forEach(this::tokenize);
     }
 
     /**
@@ -67,19 +127,17 @@ public class Tokenizer {
      * @return
      */
     public ArrayList<ImmutablePair<String, String>> tokenizeQueryPair(String query) {
-        Pattern id_content = Pattern.compile(ASCII_WORD_REGEX_MATCH); // pattern is thread safe
-
         ArrayList<String> content = new ArrayList<>();
 
         ArrayList<ImmutablePair<String, String>> newcontent;
 
         content.addAll(Arrays.asList(query.split(" ")));
 
-        newcontent = (ArrayList<ImmutablePair<String, String>>) content.parallelStream()
+        newcontent = (ArrayList<ImmutablePair<String, String>>) content.stream()
                 .distinct()
                 .filter(s -> !s.isEmpty())
                 .filter(s -> s.length() >= MINIMUM_WORD_LENGTH)
-                .map(id_content::matcher)
+                .map(QUERY_WORD::matcher)
                 .filter(Matcher::find)
                 .map((t) ->
                 {
@@ -92,12 +150,7 @@ public class Tokenizer {
                 })
                 .flatMap(Collection::stream)
                 .filter(s -> !stopWords.filter(s))
-                .map((s) ->
-                {
-                    // Stemmer is NOT thread-safe! must initialize
-                    Stemmer internalStemmer = new PorterStemmer();
-                    return new ImmutablePair<>(s, internalStemmer.stem(s));
-                })
+                .map((s) -> new ImmutablePair<>(s, stemmers.get().stem(s)))
                 .collect(Collectors.toList());
 
         return newcontent;
@@ -0,0 +1,212 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+import java.nio.ByteBuffer;
+
+import static pt.ua.deti.ir.Utils.Disk.PostingCodec.BLOCK_SIZE;
+
+/**
+ * Iterates over an encoded posting list (see {@link PostingCodec}), decoding one block at a time and only when
+ * one of its postings is actually needed. {@link #advance(int)} skips whole blocks using their headers.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class BlockPostingIterator implements PostingIterator {
+
+    private final ByteBuffer buf;
+    private final int df;
+    private final float maxWeight;
+    private final int maxFreq;
+    private final int minLength;
+    private final int[] docs;
+    private final int[] freqs;
+
+    private int block;              // current block number
+    private int blockCount;         // number of postings in the current block
+    private int blockLast;          // last docID of the current block
+    private int blockPrevLast;      // last docID of the previous block
+    private int blockMax;           // max quantized weight of the current block
+    private int blockMaxFreq;       // max term frequency of the current block
+    private int blockMinLength;     // min document length of the current block
+    private int payload;            // position of the current block payload
+    private int nextBlock;          // position of the next block header
+    private boolean decoded;
+    private int index;              // position inside the decoded block
+    private int doc;
+
+    /**
+     * Initializes an iterator over postings whose impact is unknown
+     * @param buf encoded postings, from its position to its limit
+     * @param df number of postings
+     */
+    public BlockPostingIterator(ByteBuffer buf, int df) {
+        this(buf, df, PostingCodec.Impact.UNKNOWN);
+    }
+
+    /**
+     * Initializes an iterator
+     * @param buf encoded postings, from its position to its limit
+     * @param df number of postings
+     * @param impact impact of the whole posting list, looser bounds are enough
+     */
+    public BlockPostingIterator(ByteBuffer buf, int df, PostingCodec.Impact impact) {
+        this.buf = buf;
+        this.df = df;
+        this.maxWeight = PostingCodec.dequantize(impact.getWeight());
+        this.maxFreq = impact.getFreq();
+        this.minLength = impact.getLength();
+        this.docs = new int[Math.min(df, BLOCK_SIZE)];
+        this.freqs = new int[Math.min(df, BLOCK_SIZE)];
+        this.block = -1;
+        this.blockLast = -1;
+        this.nextBlock = buf.position();
+        this.doc = -1;
+        readBlockHeader();
+    }
+
+    @Override
+    public int size() {
+        return df;
+    }
+
+    @Override
+    public float maxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public int maxFreq() {
+        return maxFreq;
+    }
+
+    @Override
+    public int minLength() {
+        return minLength;
+    }
+
+    @Override
+    public int docID() {
+        return doc;
+    }
+
+    @Override
+    public int freq() {
+        return freqs[index];
+    }
+
+    @Override
+    public int blockLastDoc() {
+        return blockLast;
+    }
+
+    @Override
+    public float blockMaxWeight() {
+        return PostingCodec.dequantize(blockMax);
+    }
+
+    @Override
+    public int blockMaxFreq() {
+        return blockMaxFreq;
+    }
+
+    @Override
+    public int blockMinLength() {
+        return blockMinLength;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (doc == NO_MORE_DOCS || block < 0) {
+            return doc = NO_MORE_DOCS;
+        }
+        if (!decoded) {
+            decodeBlock();
+            index = 0;
+        } else if (++index == blockCount) {
+            if (!readBlockHeader()) {
+                return doc = NO_MORE_DOCS;
+            }
+            decodeBlock();
+            index = 0;
+        }
+        return doc = docs[index];
+    }
+
+    @Override
+    public int advance(int target) {
+        if (doc >= target) {
+            return doc;
+        }
+        if (block < 0 || !shallowAdvance(target)) {
+            return doc = NO_MORE_DOCS;
+        }
+        if (!decoded) {
+            decodeBlock();
+            index = 0;
+        }
+        while (docs[index] < target) {
+            index++;
+        }
+        return doc = docs[index];
+    }
+
+    @Override
+    public boolean shallowAdvance(int target) {
+        while (blockLast < target) {
+            if (!readBlockHeader()) {
+                break;
+            }
+        }
+        return blockLast != NO_MORE_DOCS;
+    }
+
+    @Override
+    public void decodeAll(PostingList postings) {
+        for (int d = nextDoc(); d != NO_MORE_DOCS; d = nextDoc()) {
+            postings.add(d, freqs[index]);
+        }
+    }
+
+    /**
+     * Read the header of the next block
+     * @return false if there are no more blocks
+     */
+    private boolean readBlockHeader() {
+        if (block + 1 >= (df + BLOCK_SIZE - 1) / BLOCK_SIZE) {
+            blockLast = NO_MORE_DOCS;
+            return false;
+        }
+        block++;
+        blockCount = Math.min(BLOCK_SIZE, df - block * BLOCK_SIZE);
+        blockPrevLast = blockLast;
+
+        buf.position(nextBlock);
+        blockLast = blockPrevLast + PostingCodec.readVInt(buf);
+        int length = PostingCodec.readVInt(buf);
+        blockMax = PostingCodec.readWeight(buf);
+        blockMaxFreq = PostingCodec.readVInt(buf);
+        blockMinLength = PostingCodec.readVInt(buf);
+        payload = buf.position();
+        nextBlock = payload + length;
+        decoded = false;
+        return true;
+    }
+
+    /**
+     * Decode the docIDs and term frequencies of the current block
+     */
+    private void decodeBlock() {
+        buf.position(payload);
+        int prev = blockPrevLast;
+        for (int i = 0; i < blockCount; i++) {
+            prev += PostingCodec.readVInt(buf);
+            docs[i] = prev;
+        }
+        for (int i = 0; i < blockCount; i++) {
+            freqs[i] = PostingCodec.readVInt(buf);
+        }
+        decoded = true;
+    }
+}
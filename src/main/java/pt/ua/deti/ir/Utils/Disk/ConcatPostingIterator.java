@@ -0,0 +1,147 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+import java.util.List;
+
+/**
+ * Posting list of a term spread over several index segments, whose docID ranges are disjoint: the postings of
+ * every segment are visited one segment after the other, in docID order.
+ * The document frequency is the sum of the segments' and the bounds of the postings the loosest of theirs, so the
+ * ranking sees a single posting list.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class ConcatPostingIterator implements PostingIterator {
+
+    private final PostingIterator[] its;
+    private final int df;
+    private final float maxWeight;
+    private final int maxFreq;
+    private final int minLength;
+    private int current;            // segment of the current posting
+    private int shallow;            // segment of the current block, may be ahead of the current posting
+    private int doc = -1;
+
+    /**
+     * Initializes an iterator
+     * @param its iterators of the segments, in increasing docID ranges
+     */
+    public ConcatPostingIterator(List<PostingIterator> its) {
+        this.its = its.toArray(new PostingIterator[0]);
+        int sum = 0;
+        float max = 0;
+        int freq = 0;
+        int length = Integer.MAX_VALUE;
+        for (PostingIterator it : its) {
+            sum += it.size();
+            max = Math.max(max, it.maxWeight());
+            freq = Math.max(freq, it.maxFreq());
+            length = Math.min(length, it.minLength());
+        }
+        this.df = sum;
+        this.maxWeight = max;
+        this.maxFreq = freq;
+        this.minLength = its.isEmpty() ? 0 : length;
+    }
+
+    @Override
+    public int size() {
+        return df;
+    }
+
+    @Override
+    public float maxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public int maxFreq() {
+        return maxFreq;
+    }
+
+    @Override
+    public int minLength() {
+        return minLength;
+    }
+
+    @Override
+    public int docID() {
+        return doc;
+    }
+
+    @Override
+    public int freq() {
+        return its[current].freq();
+    }
+
+    @Override
+    public int blockLastDoc() {
+        return shallow < its.length ? its[shallow].blockLastDoc() : NO_MORE_DOCS;
+    }
+
+    @Override
+    public float blockMaxWeight() {
+        return shallow < its.length ? its[shallow].blockMaxWeight() : 0f;
+    }
+
+    @Override
+    public int blockMaxFreq() {
+        return shallow < its.length ? its[shallow].blockMaxFreq() : 0;
+    }
+
+    @Override
+    public int blockMinLength() {
+        return shallow < its.length ? its[shallow].blockMinLength() : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int nextDoc() {
+        while (current < its.length) {
+            int d = its[current].nextDoc();
+            if (d != NO_MORE_DOCS) {
+                return doc = d;
+            }
+            next();
+        }
+        return doc = NO_MORE_DOCS;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (doc >= target) {
+            return doc;
+        }
+        while (current < its.length) {
+            int d = its[current].advance(target);
+            if (d != NO_MORE_DOCS) {
+                return doc = d;
+            }
+            next();
+        }
+        return doc = NO_MORE_DOCS;
+    }
+
+    @Override
+    public boolean shallowAdvance(int target) {
+        shallow = Math.max(shallow, current);
+        while (shallow < its.length && !its[shallow].shallowAdvance(target)) {
+            shallow++;
+        }
+        return shallow < its.length;
+    }
+
+    @Override
+    public void decodeAll(PostingList postings) {
+        for (; current < its.length; next()) {
+            its[current].decodeAll(postings);
+        }
+        doc = NO_MORE_DOCS;
+    }
+
+    private void next() {
+        current++;
+        shallow = Math.max(shallow, current);
+    }
+}
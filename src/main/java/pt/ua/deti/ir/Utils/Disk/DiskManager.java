@@ -5,6 +5,8 @@ import org.nustaq.serialization.FSTObjectOutput;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
@@ -62,10 +64,31 @@ public class DiskManager {
     }
 
     /**
-     * Read and unserialize method for ConcurrentTermMap objects
+     * Write an Object into a file, using a serialized format, through a temporary file renamed over the previous one,
+     * so that readers never see it half-written
      *
      * @param fileName
-     * @return
+     * @param object
+     * @throws IOException
+     */
+    public synchronized void replace(String fileName, Object object) throws IOException {
+        File tmp = new File(dirname, fileName + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(tmp);
+             FSTObjectOutput oos = new FSTObjectOutput(fout)) {
+            oos.writeObject(object);
+        }
+        File file = new File(dirname, fileName);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        //update the directory files list
+        rfiles.add(new File(dirname + "/" + fileName));
+    }
+
+    /**
+     * Read and unserialize an object written by {@link #write} or {@link #replace}
+     *
+     * @param fileName
+     * @return the object, or null if the file can not be read
      */
     public Object read(String fileName) {
         return DiskUtils.read(fileName);
@@ -23,10 +23,10 @@ import java.util.stream.Collectors;
 public class DiskUtils {
 
     /**
-     * Read and unserialize method for ConcurrentTermMap objects
+     * Read and unserialize an object written by the DiskManager, such as the CorpusStatistics
      *
      * @param fileName
-     * @return
+     * @return the object, or null if the file can not be read
      */
     public static Object read(String fileName) {
         Object obj = null;
@@ -172,4 +172,21 @@ public class DiskUtils {
         }
         return wordsSet;
     }
+
+    /**
+     * Delete a file, or a directory along with everything inside it
+     *
+     * @param file
+     * @return false if something could not be deleted
+     */
+    public static boolean deleteRecursively(File file) {
+        boolean deleted = true;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleted &= deleteRecursively(child);
+            }
+        }
+        return file.delete() && deleted;
+    }
 }
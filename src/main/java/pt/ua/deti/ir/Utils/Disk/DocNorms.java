@@ -0,0 +1,198 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Length and norm of every document of an index segment, indexed by docID from the first docID of the segment.
+ * The postings only hold raw term frequencies, so the document statistics a ranking function needs are kept here:
+ * the length is the number of tokens of the document, and the norm the Euclidean length of its log-weighted term
+ * frequency vector (the LNC cosine normalization). A ranking can change without reindexing, and a merge moves the
+ * statistics of a document along with its postings since they never depend on the rest of the corpus.
+ * Layout: {@link #MAGIC}, {@link #VERSION}, number of docIDs, then the length (int) and norm (float) of every docID.
+ * A million documents take 8 MB. Not thread-safe while it is being filled, read-only once handed to the searchers.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class DocNorms {
+
+    public static final int MAGIC = 0x49524E4D;
+    public static final int VERSION = 1;
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final int base;
+    private int[] lengths;
+    private float[] norms;
+    private int size;
+
+    /**
+     * Create an empty array, grown by {@link #set}
+     * @param base docID of the first document
+     */
+    public DocNorms(int base) {
+        this(base, 0);
+    }
+
+    /**
+     * Create an array of empty documents
+     * @param base docID of the first document
+     * @param size number of docIDs
+     */
+    public DocNorms(int base, int size) {
+        this.base = base;
+        this.size = size;
+        this.lengths = new int[Math.max(size, INITIAL_CAPACITY)];
+        this.norms = new float[lengths.length];
+    }
+
+    /**
+     * Read the norms of a segment
+     * @param file
+     * @param base docID of the first document of the segment
+     * @return
+     * @throws IOException
+     */
+    public static DocNorms read(File file, int base) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a document norms file: " + file.getPath());
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported document norms version, rebuild the index: " + file.getPath());
+            }
+            DocNorms docs = new DocNorms(base, in.readInt());
+            for (int i = 0; i < docs.size; i++) {
+                docs.lengths[i] = in.readInt();
+                docs.norms[i] = in.readFloat();
+            }
+            return docs;
+        }
+    }
+
+    /**
+     * Write the norms to a new file
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(lengths[i]);
+                out.writeFloat(norms[i]);
+            }
+        }
+    }
+
+    /**
+     * Norm of a document out of its term frequencies: sqrt( sum (1 + log tf)^2 )
+     * @param tfs term frequency of every distinct term of the document
+     * @return
+     */
+    public static float norm(Collection<int[]> tfs) {
+        double sum = 0;
+        for (int[] tf : tfs) {
+            sum += Math.pow(1.0 + Math.log10(tf[0]), 2.0);
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    /**
+     * LNC weight of a term in a document: (1 + log tf) / norm, in ]0, 1]
+     * @param tf term frequency in the document
+     * @param norm norm of the document
+     * @return
+     */
+    public static double weight(int tf, float norm) {
+        return (1.0 + Math.log10(tf)) / norm;
+    }
+
+    /**
+     * Set the statistics of a document, growing the array up to it
+     * @param doc
+     * @param length number of tokens
+     * @param norm
+     */
+    public void set(int doc, int length, float norm) {
+        int i = doc - base;
+        if (i >= lengths.length) {
+            int capacity = Math.max(i + 1, lengths.length + (lengths.length >> 1));
+            lengths = Arrays.copyOf(lengths, capacity);
+            norms = Arrays.copyOf(norms, capacity);
+        }
+        lengths[i] = length;
+        norms[i] = norm;
+        size = Math.max(size, i + 1);
+    }
+
+    /**
+     * Copy the statistics of another segment, whose first document goes to a given docID
+     * @param other
+     * @param offset docID of the first document of the other segment
+     */
+    public void setAll(DocNorms other, int offset) {
+        for (int i = other.size - 1; i >= 0; i--) {
+            set(offset + i, other.lengths[i], other.norms[i]);
+        }
+    }
+
+    /**
+     * Getter - number of tokens of a document
+     * @param doc
+     * @return the length, 0 for a docID out of the array
+     */
+    public int getLength(int doc) {
+        int i = doc - base;
+        return i >= 0 && i < size ? lengths[i] : 0;
+    }
+
+    /**
+     * Getter - norm of a document
+     * @param doc
+     * @return the norm, 0 for a docID out of the array
+     */
+    public float getNorm(int doc) {
+        int i = doc - base;
+        return i >= 0 && i < size ? norms[i] : 0f;
+    }
+
+    /**
+     * Getter - number of tokens of every document
+     * @return
+     */
+    public long getTotalLength() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += lengths[i];
+        }
+        return total;
+    }
+
+    /**
+     * Getter - docID of the first document
+     * @return
+     */
+    public int getBase() {
+        return base;
+    }
+
+    /**
+     * Getter - number of docIDs covered
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+}
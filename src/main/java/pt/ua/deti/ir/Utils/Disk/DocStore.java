@@ -0,0 +1,92 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only document store written by a {@link DocStoreWriter}.
+ * The fixed-width records are memory mapped, so resolving a docID is a single absolute read at
+ * docID * record size; only the dictionary of the file paths is kept in the heap.
+ * Thread-safe, lookups only use absolute reads.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class DocStore {
+
+    private final MappedByteBuffer records;
+    private final int documents;
+    private final String[] paths;
+
+    /**
+     * Map a document store
+     * @param store
+     * @param paths
+     * @throws IOException
+     */
+    public DocStore(File store, File paths) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(store, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Document store too big to be mapped: " + store.getPath());
+            }
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (records.capacity() < DocStoreWriter.HEADER_SIZE || records.getInt(0) != DocStoreWriter.MAGIC) {
+            throw new IOException("Not a document store: " + store.getPath());
+        }
+        if (records.getInt(4) != DocStoreWriter.VERSION) {
+            throw new IOException("Unsupported document store version " + records.getInt(4) + ", rebuild the index: " + store.getPath());
+        }
+        documents = (records.capacity() - DocStoreWriter.HEADER_SIZE) / DocStoreWriter.RECORD_SIZE;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(paths)))) {
+            if (in.readInt() != DocStoreWriter.MAGIC) {
+                throw new IOException("Not a document store paths file: " + paths.getPath());
+            }
+            this.paths = new String[in.readInt()];
+            for (int i = 0; i < this.paths.length; i++) {
+                this.paths[i] = in.readUTF();
+            }
+        }
+    }
+
+    /**
+     * Getter - number of documents in the store
+     * @return
+     */
+    public int getDocumentCount() {
+        return documents;
+    }
+
+    /**
+     * Original Id of a document
+     * @param docID
+     * @return the Id or -1 if the document is unknown
+     */
+    public int getId(int docID) {
+        if (docID < 0 || docID >= documents) {
+            return -1;
+        }
+        return records.getInt(DocStoreWriter.HEADER_SIZE + docID * DocStoreWriter.RECORD_SIZE);
+    }
+
+    /**
+     * File path of a document
+     * @param docID
+     * @return the path or null if the document is unknown
+     */
+    public String getPath(int docID) {
+        if (docID < 0 || docID >= documents) {
+            return null;
+        }
+        int ordinal = records.getInt(DocStoreWriter.HEADER_SIZE + docID * DocStoreWriter.RECORD_SIZE + 4);
+        return ordinal < 0 || ordinal >= paths.length ? null : paths[ordinal];
+    }
+}
@@ -0,0 +1,122 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the document store read by {@link DocStore}: for every docID, in docID order, the original document Id
+ * and its file path. Paths repeat for every document of a corpus file, so they are dictionary encoded.
+ * - store file: {@link #MAGIC}, {@link #VERSION}, then one fixed-width record per docID: original Id and path
+ *   ordinal (both ints, -1 for an unknown document)
+ * - paths file: {@link #MAGIC}, number of paths, then every path (modified UTF-8) in ordinal order
+ * Records are buffered by {@link #add} and appended to the store by every {@link #flush()}, which also rewrites the
+ * (small) paths file, so the store can grow flush after flush without keeping any file open.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class DocStoreWriter implements Flushable {
+
+    public static final int MAGIC = 0x49524453;
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 8;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File store;
+    private final File paths;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> pathList = new ArrayList<>();
+    private ByteBuffer records = ByteBuffer.allocate(BUFFER_SIZE);
+    private int documents;
+    private boolean pathsChanged = true;
+
+    /**
+     * Create an empty store, replacing any previous one
+     * @param store
+     * @param paths
+     * @throws IOException
+     */
+    public DocStoreWriter(File store, File paths) throws IOException {
+        this.store = store;
+        this.paths = paths;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(store))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        writePaths();
+    }
+
+    /**
+     * Add the record of the next docID
+     * @param id original document Id, or -1 if unknown
+     * @param path file path of the document, or null if unknown
+     */
+    public void add(int id, String path) {
+        if (records.remaining() < RECORD_SIZE) {
+            ByteBuffer bigger = ByteBuffer.allocate(records.capacity() * 2);
+            records.flip();
+            bigger.put(records);
+            records = bigger;
+        }
+        records.putInt(id);
+        records.putInt(path == null ? -1 : ordinal(path));
+        documents++;
+    }
+
+    /**
+     * Getter - number of docIDs added, the next one added is this one
+     * @return
+     */
+    public int getDocumentCount() {
+        return documents;
+    }
+
+    /**
+     * Append the records added since the last flush to the store and write the paths
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(store, true)) {
+            out.write(records.array(), 0, records.position());
+        }
+        records.clear();
+        if (pathsChanged) {
+            writePaths();
+        }
+    }
+
+    private int ordinal(String path) {
+        Integer ordinal = ordinals.get(path);
+        if (ordinal == null) {
+            ordinal = pathList.size();
+            ordinals.put(path, ordinal);
+            pathList.add(path);
+            pathsChanged = true;
+        }
+        return ordinal;
+    }
+
+    private void writePaths() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(paths), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pathList.size());
+            for (String path : pathList) {
+                out.writeUTF(path);
+            }
+        }
+        pathsChanged = false;
+    }
+}
@@ -0,0 +1,176 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Live documents of an index segment: one bit per docID of the segment, set while the document is live.
+ * Segments never change once written, so deleting documents writes a new generation of the bitset next to the
+ * segment, named by the {@link SegmentInfo} committed along with it. A million documents take 125 KB.
+ * Layout: {@link #MAGIC}, {@link #VERSION}, number of docIDs, number of deleted documents, then the bits as longs.
+ * Not thread-safe while documents are being deleted, read-only once handed to the searchers.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class LiveDocs {
+
+    public static final int MAGIC = 0x49524C44;
+    public static final int VERSION = 1;
+
+    private final long[] bits;
+    private final int size;
+    private int deleted;
+
+    /**
+     * Create a bitset where every document is live
+     * @param size number of docIDs
+     */
+    public LiveDocs(int size) {
+        this.size = size;
+        this.bits = new long[(size + 63) >>> 6];
+        Arrays.fill(bits, -1L);
+        if ((size & 63) != 0) {
+            bits[bits.length - 1] = (1L << size) - 1;
+        }
+    }
+
+    private LiveDocs(long[] bits, int size, int deleted) {
+        this.bits = bits;
+        this.size = size;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Read the live documents of a segment
+     * @param dir segment directory
+     * @param segment
+     * @return the live documents, or null if the segment has no deletions
+     * @throws IOException
+     */
+    public static LiveDocs read(File dir, SegmentInfo segment) throws IOException {
+        if (!segment.hasDeletions()) {
+            return null;
+        }
+        LiveDocs live = read(new File(dir, segment.getLiveDocsFile()));
+        if (live.size != segment.getDocumentCount()) {
+            throw new IOException("Live documents of " + segment + " cover " + live.size + " docIDs");
+        }
+        return live;
+    }
+
+    /**
+     * Read a live documents file
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static LiveDocs read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a live documents file: " + file.getPath());
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported live documents version, rebuild the index: " + file.getPath());
+            }
+            int size = in.readInt();
+            int deleted = in.readInt();
+            long[] bits = new long[(size + 63) >>> 6];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            return new LiveDocs(bits, size, deleted);
+        }
+    }
+
+    /**
+     * Write the bitset to a new file
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(deleted);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Getter - number of docIDs covered
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Getter - number of deleted documents
+     * @return
+     */
+    public int getDeletedCount() {
+        return deleted;
+    }
+
+    /**
+     * Check if a document is live. DocIDs out of the bitset were never deleted
+     * @param doc
+     * @return
+     */
+    public boolean isLive(int doc) {
+        return doc < 0 || doc >= size || (bits[doc >>> 6] & (1L << doc)) != 0;
+    }
+
+    /**
+     * Delete a document
+     * @param doc
+     * @return true if the document was live, false if it was already deleted or is out of the bitset
+     */
+    public boolean delete(int doc) {
+        if (doc < 0 || doc >= size || !isLive(doc)) {
+            return false;
+        }
+        bits[doc >>> 6] &= ~(1L << doc);
+        deleted++;
+        return true;
+    }
+
+    /**
+     * Delete the deleted documents of another bitset, shifted by an offset: the deletions of a segment into the
+     * bitset of a whole index
+     * @param other
+     * @param offset docID of the first document of the other bitset
+     */
+    public void deleteAll(LiveDocs other, int offset) {
+        for (int w = 0; w < other.bits.length; w++) {
+            long dead = ~other.bits[w];
+            while (dead != 0) {
+                int doc = (w << 6) + Long.numberOfTrailingZeros(dead);
+                if (doc >= other.size) {
+                    break;
+                }
+                delete(offset + doc);
+                dead &= dead - 1;
+            }
+        }
+    }
+
+    /**
+     * Copy of the bitset, to delete documents without changing a published one
+     * @return
+     */
+    public LiveDocs copy() {
+        return new LiveDocs(bits.clone(), size, deleted);
+    }
+}
@@ -0,0 +1,85 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view over a postings file and its {@link TermDictionary} (both written by a {@link PostingWriter}),
+ * memory mapped so a lookup only touches the pages of the dictionary block it scans and of the term postings.
+ * Caching is left to the OS page cache, the heap only holds the buffer handles and the dictionary sparse index.
+ * The postings file is mapped in chunks of {@link #CHUNK_SIZE}, each one overlapping the next by the longest
+ * posting list, so any posting list is fully inside the chunk where it starts.
+ * Lookups only use absolute reads on the shared buffers, so they are thread-safe.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class MappedPostings {
+
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] chunks;
+    private final TermDictionary dictionary;
+
+    /**
+     * Map a postings file and its dictionary
+     * @param postingsFile
+     * @param dictionaryFile
+     * @throws IOException
+     */
+    public MappedPostings(File postingsFile, File dictionaryFile) throws IOException {
+        dictionary = new TermDictionary(dictionaryFile);
+
+        try (RandomAccessFile raf = new RandomAccessFile(postingsFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            chunks = new MappedByteBuffer[(int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                long length = Math.min(size - start, CHUNK_SIZE + dictionary.getMaxPostingsLength());
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+
+        if (chunks[0].getInt(0) != PostingWriter.MAGIC || chunks[0].get(4) != PostingCodec.WEIGHT_BITS) {
+            throw new IOException("Not a posting file, or one of an older format (rebuild the index): " + postingsFile.getPath());
+        }
+    }
+
+    /**
+     * Getter - the term dictionary, also an ordered view of the term space
+     * @return
+     */
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Lazy iterator over the postings of a term
+     * @param term
+     * @return the iterator or null if the term is not in the dictionary
+     */
+    public PostingIterator postings(String term) {
+        TermDictionary.Entry entry = dictionary.get(term);
+        return entry == null ? null : postings(entry);
+    }
+
+    /**
+     * Lazy iterator over the postings of a dictionary entry
+     * @param entry
+     * @return
+     */
+    public PostingIterator postings(TermDictionary.Entry entry) {
+        int chunk = (int) (entry.getOffset() / CHUNK_SIZE);
+        int position = (int) (entry.getOffset() - chunk * CHUNK_SIZE);
+
+        ByteBuffer slice = chunks[chunk].duplicate();
+        slice.position(position);
+        slice.limit(position + entry.getLength());
+        return new BlockPostingIterator(slice, entry.getDocumentFrequency(), entry.getImpact());
+    }
+}
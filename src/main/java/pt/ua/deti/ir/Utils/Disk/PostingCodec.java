@@ -0,0 +1,271 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary codec of the posting lists.
+ * Postings are split in blocks of {@link #BLOCK_SIZE}. Each block starts with a small header, so a reader can skip
+ * whole blocks without decoding them:
+ * - gap between the last docID of the block and the last docID of the previous block (variable-byte)
+ * - payload length in bytes (variable-byte)
+ * - impact of the block, upper bounds used to skip blocks while ranking: maximum quantized LNC weight, then the
+ *   maximum term frequency and the minimum document length (variable-byte), which bound any ranking function that
+ *   grows with the frequency and decreases with the length
+ * The payload holds the docID gaps followed by the raw term frequencies (both variable-byte). The weights are only
+ * computed when ranking, out of the frequencies and the {@link DocNorms} of the documents.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class PostingCodec {
+
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * Weight quantization of the upper bounds, 8 or 16 bits. LNC weights are in ]0, 1]
+     */
+    public static final int WEIGHT_BITS = 16;
+
+    private static final int WEIGHT_MAX = (1 << WEIGHT_BITS) - 1;
+
+    /**
+     * Quantize a weight in ]0, 1], rounding up so the quantized weight stays an upper bound
+     * @param weight
+     * @return
+     */
+    public static int quantize(double weight) {
+        return (int) Math.max(1, Math.min(WEIGHT_MAX, Math.ceil(weight * WEIGHT_MAX)));
+    }
+
+    /**
+     * Restore a quantized weight
+     * @param q
+     * @return
+     */
+    public static float dequantize(int q) {
+        return q / (float) WEIGHT_MAX;
+    }
+
+    /**
+     * Encode a posting list sorted by docID
+     * @param postings
+     * @param out destination
+     * @param norms norms of the documents, or null to leave the weights and lengths unbounded (runs, which are never
+     *              ranked)
+     * @return impact of the whole posting list
+     */
+    public static Impact encode(PostingList postings, ByteSink out, DocNorms norms) {
+        ByteSink payload = new ByteSink(BLOCK_SIZE * 4);
+        int prevLast = -1;
+        int listWeight = 0;
+        int listFreq = 0;
+        int listLength = Integer.MAX_VALUE;
+
+        for (int start = 0; start < postings.size(); start += BLOCK_SIZE) {
+            int end = Math.min(start + BLOCK_SIZE, postings.size());
+            payload.reset();
+
+            int prev = prevLast;
+            int weight = 0;
+            int freq = 0;
+            int length = Integer.MAX_VALUE;
+            for (int i = start; i < end; i++) {
+                payload.writeVInt(postings.getDocID(i) - prev);
+                prev = postings.getDocID(i);
+            }
+            for (int i = start; i < end; i++) {
+                int tf = postings.getFreq(i);
+                payload.writeVInt(tf);
+                freq = Math.max(freq, tf);
+                if (norms != null) {
+                    int doc = postings.getDocID(i);
+                    weight = Math.max(weight, quantize(DocNorms.weight(tf, norms.getNorm(doc))));
+                    length = Math.min(length, norms.getLength(doc));
+                }
+            }
+            if (norms == null) {
+                weight = WEIGHT_MAX;
+                length = 0;
+            }
+            listWeight = Math.max(listWeight, weight);
+            listFreq = Math.max(listFreq, freq);
+            listLength = Math.min(listLength, length);
+
+            out.writeVInt(prev - prevLast);
+            out.writeVInt(payload.size());
+            out.writeWeight(weight);
+            out.writeVInt(freq);
+            out.writeVInt(length);
+            out.write(payload);
+            prevLast = prev;
+        }
+        return new Impact(listWeight, listFreq, postings.size() == 0 ? 0 : listLength);
+    }
+
+    /**
+     * Read a variable-byte integer
+     * @param buf
+     * @return
+     */
+    static int readVInt(ByteBuffer buf) {
+        int b = buf.get();
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * Read a variable-byte long
+     * @param buf
+     * @return
+     */
+    static long readVLong(ByteBuffer buf) {
+        long b = buf.get();
+        long value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * Read a quantized weight
+     * @param buf
+     * @return
+     */
+    static int readWeight(ByteBuffer buf) {
+        return WEIGHT_BITS == 8 ? buf.get() & 0xFF : buf.getShort() & 0xFFFF;
+    }
+
+    /**
+     * Upper bounds of the postings of a block or of a whole posting list, out of which the ranking bounds the score
+     * of any of them: maximum quantized LNC weight, maximum term frequency and minimum document length
+     */
+    public static final class Impact {
+
+        // bounds of postings nothing is known about
+        public static final Impact UNKNOWN = new Impact(WEIGHT_MAX, Integer.MAX_VALUE, 0);
+
+        private final int weight;
+        private final int freq;
+        private final int length;
+
+        /**
+         * Initializes an Impact
+         * @param weight maximum quantized weight
+         * @param freq maximum term frequency
+         * @param length minimum document length
+         */
+        public Impact(int weight, int freq, int length) {
+            this.weight = weight;
+            this.freq = freq;
+            this.length = length;
+        }
+
+        /**
+         * Getter - maximum quantized weight
+         * @return
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Getter - maximum term frequency
+         * @return
+         */
+        public int getFreq() {
+            return freq;
+        }
+
+        /**
+         * Getter - minimum document length
+         * @return
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Growable byte array used to encode posting lists
+     */
+    public static class ByteSink {
+
+        private byte[] bytes;
+        private int size;
+
+        public ByteSink(int capacity) {
+            bytes = new byte[capacity];
+            size = 0;
+        }
+
+        public void writeVInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        public void writeWeight(int q) {
+            ensure(2);
+            if (WEIGHT_BITS == 16) {
+                bytes[size++] = (byte) (q >>> 8);
+            }
+            bytes[size++] = (byte) q;
+        }
+
+        public void writeVLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        public void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        public void write(ByteSink other) {
+            write(other.bytes, 0, other.size);
+        }
+
+        public byte[] array() {
+            return bytes;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void reset() {
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+    }
+}
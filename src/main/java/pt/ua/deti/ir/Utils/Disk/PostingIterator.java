@@ -0,0 +1,102 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+/**
+ * Iterator over a posting list in docID order, along with the block structure used to skip postings.
+ * Not thread-safe, every query gets its own iterators.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public interface PostingIterator {
+
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Getter - number of postings (document frequency)
+     * @return
+     */
+    int size();
+
+    /**
+     * Getter - upper bound of the LNC weights of the whole posting list
+     * @return
+     */
+    float maxWeight();
+
+    /**
+     * Getter - upper bound of the term frequencies of the whole posting list
+     * @return
+     */
+    int maxFreq();
+
+    /**
+     * Getter - lower bound of the lengths of the documents of the whole posting list
+     * @return
+     */
+    int minLength();
+
+    /**
+     * Getter - current docID, -1 before the first call to nextDoc or advance
+     * @return
+     */
+    int docID();
+
+    /**
+     * Getter - term frequency of the current posting
+     * @return
+     */
+    int freq();
+
+    /**
+     * Getter - last docID of the current block
+     * @return
+     */
+    int blockLastDoc();
+
+    /**
+     * Getter - upper bound of the LNC weights of the current block
+     * @return
+     */
+    float blockMaxWeight();
+
+    /**
+     * Getter - upper bound of the term frequencies of the current block
+     * @return
+     */
+    int blockMaxFreq();
+
+    /**
+     * Getter - lower bound of the lengths of the documents of the current block
+     * @return
+     */
+    int blockMinLength();
+
+    /**
+     * Move to the next posting
+     * @return the docID or NO_MORE_DOCS
+     */
+    int nextDoc();
+
+    /**
+     * Move to the first posting with a docID greater or equal to the target, skipping blocks without decoding them
+     * @param target
+     * @return the docID or NO_MORE_DOCS
+     */
+    int advance(int target);
+
+    /**
+     * Position the block headers on the block that may contain the target, without decoding any posting.
+     * The postings before the target may be skipped by the next move, callers must then advance to the target
+     * @param target
+     * @return false if no block may contain the target
+     */
+    boolean shallowAdvance(int target);
+
+    /**
+     * Decode every remaining posting into a list
+     * @param postings destination
+     */
+    void decodeAll(PostingList postings);
+}
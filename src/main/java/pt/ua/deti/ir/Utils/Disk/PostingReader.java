@@ -0,0 +1,171 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sequential reader of the files written by a {@link PostingWriter}.
+ * Only the current record is held in memory, and its postings are only decoded when requested.
+ * Reading may start at any record, given its file offset (see {@link #getOffset()}).
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class PostingReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataInputStream in;
+    //file offset of the next byte read, and of the current record
+    private long position;
+    private long offset;
+    private String term;
+    private int df;
+    private int length;
+    private byte[] bytes;
+    private boolean postingsRead;
+
+    /**
+     * Open a file for reading
+     * @param file
+     * @throws IOException
+     */
+    public PostingReader(File file) throws IOException {
+        this(file, PostingWriter.HEADER_SIZE);
+    }
+
+    /**
+     * Open a file for reading from a record on
+     * @param file
+     * @param offset file offset of the first record to read
+     * @throws IOException
+     */
+    public PostingReader(File file, long offset) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        DataInputStream header = new DataInputStream(stream);
+        if (header.readInt() != PostingWriter.MAGIC || header.readByte() != PostingCodec.WEIGHT_BITS) {
+            stream.close();
+            throw new IOException("Not a posting file, or one of an older format (rebuild the index): " + file.getPath());
+        }
+        stream.getChannel().position(offset);
+
+        in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+        bytes = new byte[BUFFER_SIZE];
+        postingsRead = true;
+        position = offset;
+    }
+
+    /**
+     * Advance to the next record
+     * @return false if there are no more records
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (!postingsRead) {
+            skipPostings();
+        }
+        if (term != null && term.isEmpty()) {
+            return false;
+        }
+        offset = position;
+        term = in.readUTF();
+        if (term.isEmpty()) {
+            return false;
+        }
+        df = in.readInt();
+        length = in.readInt();
+        position += 2 + PostingWriter.utfLength(term) + 8 + length;
+        postingsRead = false;
+        return true;
+    }
+
+    /**
+     * Getter - file offset of the current record
+     * @return
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter - length of the encoded postings of the current record, in bytes
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Getter - term of the current record
+     * @return
+     */
+    public String getTerm() {
+        return term;
+    }
+
+    /**
+     * Getter - document frequency of the current record
+     * @return
+     */
+    public int getDocumentFrequency() {
+        return df;
+    }
+
+    /**
+     * Decode the postings of the current record into a new list
+     * @return
+     * @throws IOException
+     */
+    public PostingList getPostings() throws IOException {
+        PostingList postings = new PostingList(df);
+        readPostings(postings);
+        return postings;
+    }
+
+    /**
+     * Decode the postings of the current record, appending them to an existing list
+     * @param postings
+     * @throws IOException
+     */
+    public void readPostings(PostingList postings) throws IOException {
+        iterator().decodeAll(postings);
+    }
+
+    /**
+     * Lazy iterator over the postings of the current record, valid until the next call to {@link #next()}
+     * @return
+     * @throws IOException
+     */
+    public PostingIterator iterator() throws IOException {
+        if (postingsRead) {
+            throw new IllegalStateException("Postings of " + term + " were already read");
+        }
+        if (length > bytes.length) {
+            bytes = new byte[length];
+        }
+        in.readFully(bytes, 0, length);
+        postingsRead = true;
+        return new BlockPostingIterator(ByteBuffer.wrap(bytes, 0, length), df);
+    }
+
+    /**
+     * Skip the postings of the current record
+     * @throws IOException
+     */
+    private void skipPostings() throws IOException {
+        in.skipBytes(length);
+        postingsRead = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
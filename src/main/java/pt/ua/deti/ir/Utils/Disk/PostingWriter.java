@@ -0,0 +1,188 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import pt.ua.deti.ir.Structures.PostingList;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams (term, posting list) records into a binary file.
+ * Records must be written in {@link #TERM_ORDER}, so that files can be merged and searched sequentially.
+ * The file starts with {@link #MAGIC} and the weight quantization bits.
+ * Layout of each record: term (modified UTF-8), document frequency, encoded length, then the postings encoded
+ * by the {@link PostingCodec}. The file ends with an empty term.
+ * Optionally a {@link TermDictionary} is written alongside, so the postings can be searched by {@link MappedPostings}.
+ * The postings hold raw term frequencies, the {@link DocNorms} of the documents are only needed for the impact of
+ * every block and posting list, which bounds their scores for the ranking.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class PostingWriter implements Closeable {
+
+    /**
+     * Order of the terms on disk. Case insensitive first, so every term of a (lower case) prefix is contiguous.
+     */
+    public static final Comparator<String> TERM_ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    // postings with term frequencies and block impacts, files without impacts had 0x49525046 and files of
+    // quantized weights 0x49525053
+    public static final int MAGIC = 0x49525049;
+
+    // magic and weight bits
+    public static final int HEADER_SIZE = 5;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final PostingCodec.ByteSink sink;
+    private final TermDictionaryWriter dictionary;
+    private final DocNorms norms;
+    private long position;
+    private int terms;
+
+    /**
+     * Open a file for writing
+     * @param file
+     * @throws IOException
+     */
+    public PostingWriter(File file) throws IOException {
+        this(file, null, null);
+    }
+
+    /**
+     * Open a file for writing, along with its term dictionary
+     * @param file
+     * @param dictionary dictionary file, or null to write none
+     * @param norms norms of the documents, or null if the postings are never ranked
+     * @throws IOException
+     */
+    public PostingWriter(File file, File dictionary, DocNorms norms) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        sink = new PostingCodec.ByteSink(BUFFER_SIZE);
+        this.dictionary = dictionary == null ? null : new TermDictionaryWriter(dictionary);
+        this.norms = norms;
+        terms = 0;
+        out.writeInt(MAGIC);
+        out.writeByte(PostingCodec.WEIGHT_BITS);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Append a term and its posting list (sorted by docID)
+     * @param term
+     * @param postings
+     * @throws IOException
+     */
+    public void write(String term, PostingList postings) throws IOException {
+        sink.reset();
+        PostingCodec.Impact impact = PostingCodec.encode(postings, sink, norms);
+
+        out.writeUTF(term);
+        out.writeInt(postings.size());
+        out.writeInt(sink.size());
+        out.write(sink.array(), 0, sink.size());
+
+        long offset = position + 2 + utfLength(term) + 8;
+        position = offset + sink.size();
+
+        if (dictionary != null) {
+            dictionary.add(term, postings.size(), impact, offset, sink.size());
+        }
+        terms++;
+    }
+
+    /**
+     * Getter - number of terms written so far
+     * @return
+     */
+    public int getTermCount() {
+        return terms;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.writeUTF("");
+        out.close();
+
+        if (dictionary != null) {
+            dictionary.close();
+        }
+    }
+
+    /**
+     * Concatenate posting files with their term dictionaries, written over consecutive term ranges, into a single
+     * posting file and dictionary. The records are copied as they are, only the postings offsets of the
+     * dictionary entries move
+     * @param parts posting files, in term order
+     * @param dictionaries their term dictionaries
+     * @param file posting file to write
+     * @param dictionary dictionary file to write
+     * @return number of terms written
+     * @throws IOException
+     */
+    public static int concat(List<File> parts, List<File> dictionaries, File file, File dictionary) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             TermDictionaryWriter terms = new TermDictionaryWriter(dictionary)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) PostingCodec.WEIGHT_BITS).flip();
+            out.write(header);
+
+            long position = HEADER_SIZE;
+            for (int i = 0; i < parts.size(); i++) {
+                // the records of a part, without its header and end marker
+                long shift = position - HEADER_SIZE;
+                try (FileChannel in = FileChannel.open(parts.get(i).toPath(), StandardOpenOption.READ)) {
+                    long count = in.size() - HEADER_SIZE - 2;
+                    for (long copied = 0; copied < count; ) {
+                        copied += in.transferTo(HEADER_SIZE + copied, count - copied, out);
+                    }
+                    position += count;
+                }
+
+                Iterator<TermDictionary.Entry> entries = new TermDictionary(dictionaries.get(i)).iterator(null);
+                while (entries.hasNext()) {
+                    TermDictionary.Entry entry = entries.next();
+                    terms.add(entry.getTerm(), entry.getDocumentFrequency(), entry.getImpact(),
+                            entry.getOffset() + shift, entry.getLength());
+                }
+            }
+
+            ByteBuffer end = ByteBuffer.allocate(2);
+            end.putShort((short) 0).flip();
+            out.write(end);
+            return terms.getTermCount();
+        }
+    }
+
+    /**
+     * Length of a string in modified UTF-8, as written by writeUTF
+     * @param s
+     * @return
+     */
+    static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,138 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import static pt.ua.deti.ir.Constants.LIVE_DOCS_PREFIX;
+
+/**
+ * A segment of the index: a self-contained directory with its own postings, term dictionary and document store,
+ * covering a contiguous range of docIDs. Immutable, a segment is never modified once committed to the
+ * {@link SegmentManifest}, merges write a new one. Deleting documents only writes a new generation of its
+ * {@link LiveDocs}, committed as a new SegmentInfo of the same segment.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class SegmentInfo {
+
+    private final String name;
+    private final int base;
+    private final int documents;
+    private final int terms;
+    private final long tokens;
+    private final int deleted;
+    private final int liveGeneration;
+
+    /**
+     * Initializes a SegmentInfo without deletions
+     * @param name directory of the segment, inside the index directory
+     * @param base first docID of the segment
+     * @param documents number of docIDs of the segment
+     * @param terms number of terms of its dictionary
+     * @param tokens number of tokens of its documents
+     */
+    public SegmentInfo(String name, int base, int documents, int terms, long tokens) {
+        this(name, base, documents, terms, tokens, 0, 0);
+    }
+
+    /**
+     * Initializes a SegmentInfo
+     * @param name directory of the segment, inside the index directory
+     * @param base first docID of the segment
+     * @param documents number of docIDs of the segment
+     * @param terms number of terms of its dictionary
+     * @param tokens number of tokens of its documents, the deleted ones included
+     * @param deleted number of deleted documents
+     * @param liveGeneration generation of the live documents file, 0 if no document was ever deleted
+     */
+    public SegmentInfo(String name, int base, int documents, int terms, long tokens, int deleted, int liveGeneration) {
+        this.name = name;
+        this.base = base;
+        this.documents = documents;
+        this.terms = terms;
+        this.tokens = tokens;
+        this.deleted = deleted;
+        this.liveGeneration = liveGeneration;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter - first docID of the segment
+     * @return
+     */
+    public int getBase() {
+        return base;
+    }
+
+    /**
+     * Getter - number of docIDs, the segment covers [base, base + documents)
+     * @return
+     */
+    public int getDocumentCount() {
+        return documents;
+    }
+
+    public int getTermCount() {
+        return terms;
+    }
+
+    /**
+     * Getter - number of tokens of the documents, the deleted ones included until the segment is merged
+     * @return
+     */
+    public long getTokenCount() {
+        return tokens;
+    }
+
+    /**
+     * Getter - number of deleted documents, still in the postings until the segment is merged
+     * @return
+     */
+    public int getDeletedCount() {
+        return deleted;
+    }
+
+    /**
+     * Getter - number of documents that were not deleted
+     * @return
+     */
+    public int getLiveDocumentCount() {
+        return documents - deleted;
+    }
+
+    public int getLiveGeneration() {
+        return liveGeneration;
+    }
+
+    /**
+     * Check if the segment has a live documents file
+     * @return
+     */
+    public boolean hasDeletions() {
+        return liveGeneration > 0;
+    }
+
+    /**
+     * Name of the live documents file, inside the segment directory
+     * @return the name or null if the segment has no deletions
+     */
+    public String getLiveDocsFile() {
+        return hasDeletions() ? LIVE_DOCS_PREFIX + liveGeneration : null;
+    }
+
+    /**
+     * The same segment with a new generation of live documents
+     * @param deleted number of deleted documents
+     * @return
+     */
+    public SegmentInfo withDeletions(int deleted) {
+        return new SegmentInfo(name, base, documents, terms, tokens, deleted, liveGeneration + 1);
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("%s [%d, %d) %d terms", name, base, base + documents, terms);
+        return deleted > 0 ? s + ", " + deleted + " deleted" : s;
+    }
+}
@@ -0,0 +1,270 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static pt.ua.deti.ir.Constants.LIVE_DOCS_PREFIX;
+import static pt.ua.deti.ir.Constants.SEGMENTS_FILE;
+import static pt.ua.deti.ir.Constants.SEGMENT_PREFIX;
+
+/**
+ * List of the live segments of an index directory, in docID order. The segments file is the commit point of the
+ * index: a segment is only searched once the manifest naming it is committed, and a merged segment replaces its
+ * sources in a single commit. A commit writes a new file and renames it over the previous one, so readers always
+ * see a whole manifest.
+ * Layout: {@link #MAGIC}, {@link #VERSION}, number of the next segment, number of segments, then for every
+ * segment its name (modified UTF-8), first docID, number of docIDs, number of terms, number of tokens, number of
+ * deleted documents and generation of its live documents (version 1 manifests have no deletions, and versions 1
+ * and 2 no token counts).
+ * A single process may write an index directory at a time; inside it, every method is thread-safe.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class SegmentManifest {
+
+    public static final int MAGIC = 0x49525347;
+    public static final int VERSION = 3;
+
+    private final File dir;
+    private final List<SegmentInfo> segments = new ArrayList<>();
+    private int counter;
+
+    private SegmentManifest(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Read the manifest of an index directory
+     * @param dirname
+     * @return the manifest, empty if the directory has none
+     * @throws IOException
+     */
+    public static SegmentManifest read(String dirname) throws IOException {
+        SegmentManifest manifest = new SegmentManifest(new File(dirname));
+        File file = new File(dirname, SEGMENTS_FILE);
+        if (!file.exists()) {
+            return manifest;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a segments file: " + file.getPath());
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported segments file version, rebuild the index: " + file.getPath());
+            }
+            manifest.counter = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int base = in.readInt();
+                int documents = in.readInt();
+                int terms = in.readInt();
+                long tokens = version >= 3 ? in.readLong() : 0;
+                manifest.segments.add(version == 1
+                        ? new SegmentInfo(name, base, documents, terms, tokens)
+                        : new SegmentInfo(name, base, documents, terms, tokens, in.readInt(), in.readInt()));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Check if an index directory is made of segments
+     * @param dirname
+     * @return
+     */
+    public static boolean exists(String dirname) {
+        return new File(dirname, SEGMENTS_FILE).exists();
+    }
+
+    /**
+     * Getter - the live segments, in docID order
+     * @return
+     */
+    public synchronized List<SegmentInfo> getSegments() {
+        return Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    /**
+     * Getter - first docID after every live segment
+     * @return
+     */
+    public synchronized int getNextDocID() {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        SegmentInfo last = segments.get(segments.size() - 1);
+        return last.getBase() + last.getDocumentCount();
+    }
+
+    /**
+     * Getter - number of live documents of every segment
+     * @return
+     */
+    public synchronized int getLiveDocumentCount() {
+        return segments.stream().mapToInt(SegmentInfo::getLiveDocumentCount).sum();
+    }
+
+    /**
+     * Getter - number of docIDs of every segment, the deleted documents included until their segment is merged
+     * @return
+     */
+    public synchronized int getDocumentCount() {
+        return segments.stream().mapToInt(SegmentInfo::getDocumentCount).sum();
+    }
+
+    /**
+     * Getter - average number of tokens of the documents of every segment, the deleted ones included until their
+     * segment is merged
+     * @return the average, 0 if there is no document
+     */
+    public synchronized double getAverageDocumentLength() {
+        long tokens = segments.stream().mapToLong(SegmentInfo::getTokenCount).sum();
+        long documents = segments.stream().mapToLong(SegmentInfo::getDocumentCount).sum();
+        return documents == 0 ? 0 : (double) tokens / documents;
+    }
+
+    /**
+     * Getter - total of the segments' term counts, each term counts once per segment holding it
+     * @return
+     */
+    public synchronized long getTermCount() {
+        return segments.stream().mapToLong(SegmentInfo::getTermCount).sum();
+    }
+
+    /**
+     * Reserve the name of a new segment, never used before in this directory
+     * @return
+     */
+    public synchronized String newSegmentName() {
+        return SEGMENT_PREFIX + counter++;
+    }
+
+    /**
+     * Directory of a segment
+     * @param name segment name
+     * @return
+     */
+    public File directory(String name) {
+        return new File(dir, name);
+    }
+
+    /**
+     * Add a segment after the live ones, its docIDs must follow theirs
+     * @param segment
+     */
+    public synchronized void add(SegmentInfo segment) {
+        if (segment.getBase() != getNextDocID()) {
+            throw new IllegalArgumentException("Segment " + segment + " does not start at docID " + getNextDocID());
+        }
+        segments.add(segment);
+    }
+
+    /**
+     * Replace adjacent live segments by the segment they were merged into. A merged segment without documents,
+     * every one of them deleted, is dropped
+     * @param merged the merged segments, in docID order
+     * @param segment
+     */
+    public synchronized void replace(List<SegmentInfo> merged, SegmentInfo segment) {
+        int from = segments.indexOf(merged.get(0));
+        if (from < 0 || from + merged.size() > segments.size()
+                || !segments.subList(from, from + merged.size()).equals(merged)) {
+            throw new IllegalArgumentException("Segments " + merged + " are not live and adjacent");
+        }
+        segments.subList(from, from + merged.size()).clear();
+        if (segment.getDocumentCount() > 0) {
+            segments.add(from, segment);
+        }
+    }
+
+    /**
+     * Replace a live segment by a new generation of itself, with more deleted documents
+     * @param segment
+     */
+    public synchronized void update(SegmentInfo segment) {
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i).getName().equals(segment.getName())) {
+                segments.set(i, segment);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Segment " + segment + " is not live");
+    }
+
+    /**
+     * Remove every segment, keeping the segment names reserved
+     */
+    public synchronized void clear() {
+        segments.clear();
+    }
+
+    /**
+     * Atomically replace the segments file
+     * @throws IOException
+     */
+    public synchronized void commit() throws IOException {
+        File tmp = new File(dir, SEGMENTS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(counter);
+            out.writeInt(segments.size());
+            for (SegmentInfo segment : segments) {
+                out.writeUTF(segment.getName());
+                out.writeInt(segment.getBase());
+                out.writeInt(segment.getDocumentCount());
+                out.writeInt(segment.getTermCount());
+                out.writeLong(segment.getTokenCount());
+                out.writeInt(segment.getDeletedCount());
+                out.writeInt(segment.getLiveGeneration());
+            }
+        }
+        Files.move(tmp.toPath(), new File(dir, SEGMENTS_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete the segment directories that are not live: leftovers of a replaced index or of an interrupted write,
+     * along with the older generations of the live documents of the live segments.
+     * Must not run while a new segment is being written
+     * @return the deleted directories
+     */
+    public synchronized List<File> deleteUnused() {
+        List<File> deleted = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (files == null) {
+            return deleted;
+        }
+        for (File file : files) {
+            if (!file.isDirectory()) {
+                continue;
+            }
+            SegmentInfo live = segments.stream().filter(s -> s.getName().equals(file.getName())).findFirst().orElse(null);
+            if (live == null) {
+                DiskUtils.deleteRecursively(file);
+                deleted.add(file);
+                continue;
+            }
+            File[] generations = file.listFiles((d, name) -> name.startsWith(LIVE_DOCS_PREFIX) && !name.equals(live.getLiveDocsFile()));
+            if (generations != null) {
+                Arrays.stream(generations).forEach(File::delete);
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,269 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static pt.ua.deti.ir.Utils.Disk.PostingWriter.TERM_ORDER;
+
+/**
+ * Sorted, front-coded term dictionary written by a {@link TermDictionaryWriter}.
+ * The dictionary blocks are memory mapped, only the first term of every block (the sparse index) is kept in the heap.
+ * A lookup is a binary search over the sparse index followed by a scan of a single block, so it is O(log n).
+ * Thread-safe, every lookup works on its own view of the mapped buffer.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class TermDictionary {
+
+    private final MappedByteBuffer buf;
+    private final int blockSize;
+    private final int terms;
+    private final int maxLength;
+    private final String[] heads;
+    private final int[] headOffsets;
+
+    /**
+     * Map a dictionary file and load its sparse index
+     * @param file
+     * @throws IOException
+     */
+    public TermDictionary(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Dictionary too big to be mapped: " + file.getPath());
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.getInt(0) != TermDictionaryWriter.MAGIC) {
+            throw new IOException("Not a dictionary file: " + file.getPath());
+        }
+        if (buf.getInt(4) != TermDictionaryWriter.VERSION) {
+            throw new IOException("Unsupported dictionary version " + buf.getInt(4) + ", rebuild the index: " + file.getPath());
+        }
+        blockSize = buf.getInt(8);
+
+        int footer = buf.capacity() - 20;
+        terms = buf.getInt(footer);
+        int blocks = buf.getInt(footer + 4);
+        maxLength = buf.getInt(footer + 8);
+
+        heads = new String[blocks];
+        headOffsets = new int[blocks];
+        ByteBuffer index = buf.duplicate();
+        index.position((int) buf.getLong(footer + 12));
+        for (int i = 0; i < blocks; i++) {
+            byte[] bytes = new byte[PostingCodec.readVInt(index)];
+            index.get(bytes);
+            heads[i] = new String(bytes, StandardCharsets.UTF_8);
+            headOffsets[i] = (int) index.getLong();
+        }
+    }
+
+    /**
+     * Getter - number of terms
+     * @return
+     */
+    public int getTermCount() {
+        return terms;
+    }
+
+    /**
+     * Getter - length of the longest posting list, in bytes
+     * @return
+     */
+    public int getMaxPostingsLength() {
+        return maxLength;
+    }
+
+    /**
+     * Look a term up
+     * @param term
+     * @return its entry or null if the term is not in the dictionary
+     */
+    public Entry get(String term) {
+        int block = Arrays.binarySearch(heads, term, TERM_ORDER);
+        if (block < 0) {
+            block = -block - 2;
+            if (block < 0) {
+                return null;
+            }
+        }
+        byte[] target = term.getBytes(StandardCharsets.UTF_8);
+
+        Cursor cursor = new Cursor(block);
+        for (int i = 0; i < blockSize && cursor.hasNext(); i++) {
+            cursor.advance();
+            if (cursor.length == target.length && cursor.matches(target)) {
+                return cursor.entry(term);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ordered iteration over the terms, starting at the first term greater or equal to the given one
+     * @param from first term, or null to iterate over every term
+     * @return
+     */
+    public Iterator<Entry> iterator(String from) {
+        int block = 0;
+        if (from != null) {
+            block = Arrays.binarySearch(heads, from, TERM_ORDER);
+            if (block < 0) {
+                block = Math.max(-block - 2, 0);
+            }
+        }
+        Cursor cursor = new Cursor(block);
+
+        return new Iterator<Entry>() {
+            private Entry next = seek();
+
+            private Entry seek() {
+                while (cursor.hasNext()) {
+                    cursor.advance();
+                    Entry e = cursor.entry(null);
+                    if (from == null || TERM_ORDER.compare(e.getTerm(), from) >= 0) {
+                        return e;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry e = next;
+                next = cursor.hasNext() ? cursor.advanceEntry() : null;
+                return e;
+            }
+        };
+    }
+
+    /**
+     * Sequential decoder of the dictionary entries, starting at a block head
+     */
+    private class Cursor {
+
+        private final ByteBuffer in;
+        private int ordinal;
+        private byte[] bytes = new byte[64];
+        private int length;
+        private int df;
+        private int maxWeight;
+        private int maxFreq;
+        private int minLength;
+        private long offset;
+        private int postingsLength;
+
+        Cursor(int block) {
+            in = buf.duplicate();
+            in.position(headOffsets.length == 0 ? TermDictionaryWriter.HEADER_SIZE : headOffsets[block]);
+            ordinal = block * blockSize;
+        }
+
+        boolean hasNext() {
+            return ordinal < terms;
+        }
+
+        void advance() {
+            int shared = PostingCodec.readVInt(in);
+            int suffix = PostingCodec.readVInt(in);
+            if (shared + suffix > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(shared + suffix, bytes.length * 2));
+            }
+            in.get(bytes, shared, suffix);
+            length = shared + suffix;
+            df = PostingCodec.readVInt(in);
+            maxWeight = PostingCodec.readWeight(in);
+            maxFreq = PostingCodec.readVInt(in);
+            minLength = PostingCodec.readVInt(in);
+            offset = ordinal % blockSize == 0 ? in.getLong() : offset + PostingCodec.readVLong(in);
+            postingsLength = PostingCodec.readVInt(in);
+            ordinal++;
+        }
+
+        Entry advanceEntry() {
+            advance();
+            return entry(null);
+        }
+
+        boolean matches(byte[] target) {
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != target[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Entry entry(String term) {
+            return new Entry(term != null ? term : new String(bytes, 0, length, StandardCharsets.UTF_8), df,
+                    new PostingCodec.Impact(maxWeight, maxFreq, minLength), offset, postingsLength);
+        }
+    }
+
+    /**
+     * A dictionary entry: term, document frequency, impact and location of its postings
+     */
+    public static class Entry {
+
+        private final String term;
+        private final int df;
+        private final PostingCodec.Impact impact;
+        private final long offset;
+        private final int length;
+
+        Entry(String term, int df, PostingCodec.Impact impact, long offset, int length) {
+            this.term = term;
+            this.df = df;
+            this.impact = impact;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getTerm() {
+            return term;
+        }
+
+        public int getDocumentFrequency() {
+            return df;
+        }
+
+        public float getMaxWeight() {
+            return PostingCodec.dequantize(impact.getWeight());
+        }
+
+        /**
+         * Getter - upper bounds of the postings, see {@link PostingCodec.Impact}
+         * @return
+         */
+        public PostingCodec.Impact getImpact() {
+            return impact;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
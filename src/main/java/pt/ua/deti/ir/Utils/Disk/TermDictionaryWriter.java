@@ -0,0 +1,151 @@
+package pt.ua.deti.ir.Utils.Disk;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a sorted, front-coded term dictionary (read by {@link TermDictionary}).
+ * Terms are grouped in blocks of {@link #BLOCK_SIZE}; inside a block every term only stores the suffix it does
+ * not share with the previous one. Layout:
+ * - header: {@link #MAGIC}, {@link #VERSION}, block size
+ * - blocks: for each term, shared prefix length, suffix length and suffix (UTF-8 bytes), document frequency,
+ *   impact of the postings (maximum quantized weight, maximum term frequency and minimum document length), postings
+ *   offset (absolute for the first term of the block, delta for the others)
+ *   and postings length
+ * - sparse index: first term and file offset of every block
+ * - footer: term count, block count, longest postings length, sparse index offset
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class TermDictionaryWriter implements Closeable {
+
+    public static final int MAGIC = 0x49524644;
+    public static final int VERSION = 3;
+    public static final int BLOCK_SIZE = 16;
+
+    static final int HEADER_SIZE = 12;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    // block heads, written as the sparse index when closing
+    private final PostingCodec.ByteSink index;
+    private final PostingCodec.ByteSink entry;
+    private long position;
+    private int terms;
+    private int blocks;
+    private int maxLength;
+    private byte[] previous;
+    private long previousOffset;
+
+    /**
+     * Open a dictionary file for writing
+     * @param file
+     * @throws IOException
+     */
+    public TermDictionaryWriter(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        index = new PostingCodec.ByteSink(BUFFER_SIZE);
+        entry = new PostingCodec.ByteSink(256);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(BLOCK_SIZE);
+        position = HEADER_SIZE;
+        previous = new byte[0];
+    }
+
+    /**
+     * Append a term, terms must be added in {@link PostingWriter#TERM_ORDER}
+     * @param term
+     * @param df document frequency
+     * @param impact impact of the postings
+     * @param offset postings offset in the postings file
+     * @param length postings length in bytes
+     * @throws IOException
+     */
+    public void add(String term, int df, PostingCodec.Impact impact, long offset, int length) throws IOException {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        entry.reset();
+
+        if (terms % BLOCK_SIZE == 0) {
+            // block head: full term and absolute offset
+            index.writeVInt(bytes.length);
+            index.write(bytes, 0, bytes.length);
+            index.writeLong(position);
+            blocks++;
+
+            entry.writeVInt(0);
+            entry.writeVInt(bytes.length);
+            entry.write(bytes, 0, bytes.length);
+            entry.writeVInt(df);
+            writeImpact(impact);
+            entry.writeLong(offset);
+        } else {
+            int shared = sharedPrefix(previous, bytes);
+            entry.writeVInt(shared);
+            entry.writeVInt(bytes.length - shared);
+            entry.write(bytes, shared, bytes.length - shared);
+            entry.writeVInt(df);
+            writeImpact(impact);
+            entry.writeVLong(offset - previousOffset);
+        }
+        entry.writeVInt(length);
+
+        out.write(entry.array(), 0, entry.size());
+        position += entry.size();
+        previous = bytes;
+        previousOffset = offset;
+        maxLength = Math.max(maxLength, length);
+        terms++;
+    }
+
+    /**
+     * Getter - number of terms written so far
+     * @return
+     */
+    public int getTermCount() {
+        return terms;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long indexOffset = position;
+        out.write(index.array(), 0, index.size());
+        out.writeInt(terms);
+        out.writeInt(blocks);
+        out.writeInt(maxLength);
+        out.writeLong(indexOffset);
+        out.close();
+    }
+
+    /**
+     * Write the impact of the postings of the current entry
+     * @param impact
+     */
+    private void writeImpact(PostingCodec.Impact impact) {
+        entry.writeWeight(impact.getWeight());
+        entry.writeVInt(impact.getFreq());
+        entry.writeVInt(impact.getLength());
+    }
+
+    /**
+     * Number of leading bytes shared by two terms
+     * @param a
+     * @param b
+     * @return
+     */
+    private static int sharedPrefix(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < n && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+}
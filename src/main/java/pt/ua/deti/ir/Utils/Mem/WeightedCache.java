@@ -0,0 +1,384 @@
+package pt.ua.deti.ir.Utils.Mem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache bounded by the total weight (approximate bytes) of its values, with a W-TinyLFU policy:
+ * - new entries land in a small LRU window, so bursts of new keys get a chance to prove themselves;
+ * - entries leaving the window are admitted into the main space only if they were requested more often than the
+ *   entry they would evict, as estimated by a count-min sketch of the recent requests (hits and misses);
+ * - the main space is a segmented LRU: entries hit while on probation move into a protected segment, whose
+ *   overflow goes back to probation, and evictions come from probation.
+ * Memory is only bounded by the weights, the cache never looks at the heap nor calls the garbage collector.
+ * Values are loaded outside the cache lock, a value heavier than the whole budget is returned but not kept.
+ *
+ * @author Guilherme Cardoso gjc@ua.pt
+ * @author Rui Pedro ruifpedro@ua.pt
+ */
+public class WeightedCache<K, V> {
+
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final ToLongFunction<V> weigher;
+
+    private final Map<K, Node<K, V>> data = new HashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final Segment<K, V> window = new Segment<>();
+    private final Segment<K, V> probation = new Segment<>();
+    private final Segment<K, V> protectedSegment = new Segment<>();
+    private long weight;
+    private long windowWeight;
+    private long protectedWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create an empty cache
+     * @param maximumWeight budget, in the unit of the weigher
+     * @param weigher weight of a value, it must not change while the value is cached
+     */
+    public WeightedCache(long maximumWeight, ToLongFunction<V> weigher) {
+        this.maximum = maximumWeight;
+        this.windowMaximum = (long) (maximumWeight * WINDOW_RATIO);
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_RATIO);
+        this.weigher = weigher;
+    }
+
+    /**
+     * Retrieve a value, loading it on a miss
+     * @param key
+     * @param loader loads the value of a missing key, a null value is returned but not cached
+     * @return
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        synchronized (this) {
+            sketch.increment(key);
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                hits.increment();
+                onHit(node);
+                return node.value;
+            }
+        }
+        misses.increment();
+
+        V value = loader.apply(key);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve a cached value
+     * @param key
+     * @return the value or null if the key is not cached
+     */
+    public synchronized V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Insert a value, unless the key is already cached
+     * @param key
+     * @param value
+     */
+    public synchronized void put(K key, V value) {
+        if (data.containsKey(key)) {
+            return;
+        }
+        long w = weigher.applyAsLong(value);
+        if (w > maximum) {
+            return;
+        }
+
+        Node<K, V> node = new Node<>(key, value, w);
+        data.put(key, node);
+        window.addLast(node);
+        node.segment = WINDOW;
+        windowWeight += w;
+        weight += w;
+        evict();
+    }
+
+    /**
+     * Remove every entry
+     */
+    public synchronized void invalidateAll() {
+        data.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        weight = 0;
+        windowWeight = 0;
+        protectedWeight = 0;
+    }
+
+    /**
+     * Getter - number of cached entries
+     * @return
+     */
+    public synchronized int size() {
+        return data.size();
+    }
+
+    /**
+     * Getter - total weight of the cached entries
+     * @return
+     */
+    public synchronized long getWeightedSize() {
+        return weight;
+    }
+
+    public long getMaximumWeight() {
+        return maximum;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Getter - number of entries evicted or refused admission
+     * @return
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Getter - fraction of the lookups answered by the cache
+     * @return
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : h / (double) total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, %d of %d MB, hits %d, misses %d (%.1f%% hit rate), evictions %d",
+                data.size(), MemUtil.toMB(weight), MemUtil.toMB(maximum), getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+
+    private void onHit(Node<K, V> node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedSegment.addLast(node);
+                node.segment = PROTECTED;
+                protectedWeight += node.weight;
+                // protected overflow goes back to probation
+                while (protectedWeight > protectedMaximum && protectedSegment.first() != node) {
+                    Node<K, V> demoted = protectedSegment.first();
+                    protectedSegment.remove(demoted);
+                    probation.addLast(demoted);
+                    demoted.segment = PROBATION;
+                    protectedWeight -= demoted.weight;
+                }
+                break;
+            default:
+                protectedSegment.moveToLast(node);
+                break;
+        }
+    }
+
+    /**
+     * Move the window overflow into probation, then evict until the budget is met: each candidate coming from the
+     * window duels with the probation victim and the less frequently requested one goes
+     */
+    private void evict() {
+        Node<K, V> candidate = null;
+        while (windowWeight > windowMaximum && window.first() != null) {
+            Node<K, V> node = window.first();
+            window.remove(node);
+            probation.addLast(node);
+            node.segment = PROBATION;
+            windowWeight -= node.weight;
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        while (weight > maximum) {
+            // candidates sit at the probation tail, the incumbents before them
+            Node<K, V> victim = probation.first();
+            if (victim == null || victim == candidate) {
+                victim = protectedSegment.first() != null ? protectedSegment.first() : window.first();
+            }
+            if (victim == null) {
+                victim = candidate;
+            } else if (candidate != null && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                // the incumbent wins ties, the candidate is refused
+                victim = candidate;
+            }
+            if (victim == candidate) {
+                candidate = candidate.next == probation.head ? null : candidate.next;
+            }
+            remove(victim);
+        }
+    }
+
+    private void remove(Node<K, V> node) {
+        data.remove(node.key);
+        switch (node.segment) {
+            case WINDOW:
+                window.remove(node);
+                windowWeight -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            default:
+                protectedSegment.remove(node);
+                protectedWeight -= node.weight;
+                break;
+        }
+        weight -= node.weight;
+        evictions.increment();
+    }
+
+    private static class Node<K, V> {
+
+        private final K key;
+        private final V value;
+        private final long weight;
+        private int segment;
+        private Node<K, V> prev;
+        private Node<K, V> next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked LRU list, least recently used first
+     */
+    private static class Segment<K, V> {
+
+        private final Node<K, V> head = new Node<>(null, null, 0);
+
+        Segment() {
+            clear();
+        }
+
+        Node<K, V> first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+
+        void clear() {
+            head.prev = head;
+            head.next = head;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, 4 rows of 16 counters packed per long.
+     * All counters are halved once the number of increments reaches 10 times the width, so old popularity fades
+     */
+    private static class FrequencySketch {
+
+        private static final int WIDTH = 1 << 10;
+        private static final int SAMPLE_SIZE = 10 * WIDTH * 16;
+        private static final int[] SEEDS = {0x97cb3127, 0xb3a0cf3f, 0x8c3b5c1d, 0xd6e8feb8};
+
+        private final long[][] rows = new long[SEEDS.length][WIDTH];
+        private int increments;
+
+        void increment(Object key) {
+            int h = spread(key.hashCode());
+            boolean added = false;
+            for (int r = 0; r < rows.length; r++) {
+                int i = index(h, r);
+                int shift = counter(h, r) << 2;
+                if (((rows[r][i] >>> shift) & 0xf) < 15) {
+                    rows[r][i] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++increments == SAMPLE_SIZE) {
+                reset();
+            }
+        }
+
+        int frequency(Object key) {
+            int h = spread(key.hashCode());
+            int min = 15;
+            for (int r = 0; r < rows.length; r++) {
+                int shift = counter(h, r) << 2;
+                min = Math.min(min, (int) ((rows[r][index(h, r)] >>> shift) & 0xf));
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (long[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (row[i] >>> 1) & 0x7777777777777777L;
+                }
+            }
+            increments /= 2;
+        }
+
+        private static int index(int h, int row) {
+            int x = (h ^ SEEDS[row]) * 0x9e3779b9;
+            return (x >>> 16) & (WIDTH - 1);
+        }
+
+        private static int counter(int h, int row) {
+            int x = (h + SEEDS[row]) * 0x85ebca6b;
+            return (x >>> 28) & 0xf;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x45d9f3b;
+            return h ^ (h >>> 16);
+        }
+    }
+}